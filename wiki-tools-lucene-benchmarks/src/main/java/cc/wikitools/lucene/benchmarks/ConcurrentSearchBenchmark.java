@@ -0,0 +1,60 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.TopDocs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of several threads sharing one {@link cc.wikitools.lucene.WikipediaSearcher}, as
+ * the search server does. Compare with a run at <code>-t 1</code> to see how searching scales
+ * with threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentSearchBenchmark {
+  private static final int NUM_RESULTS = 10;
+
+  @Benchmark
+  public TopDocs searchArticle(IndexState index, Inputs inputs) {
+    return index.searcher.searchArticle(inputs.queries[inputs.next()], NUM_RESULTS);
+  }
+
+  @Benchmark
+  public int getArticleId(IndexState index, Inputs inputs) {
+    return index.searcher.getArticleId(inputs.titles[inputs.next()]);
+  }
+
+  @Benchmark
+  public Document getArticle(IndexState index, Inputs inputs) {
+    return index.searcher.getArticle(inputs.ids[inputs.next()]);
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.wikitools.lucene.hadoop.FileSystemDirectory;
+
+import com.google.common.io.Files;
+
+/**
+ * Throughput of random reads from one index file by several threads, each through its own clone
+ * of the input, as searching threads read postings and stored fields. Compares
+ * {@link FileSystemDirectory} over the local Hadoop {@link FileSystem}, which is how
+ * {@link cc.wikitools.lucene.hadoop.HdfsWikipediaSearcher} reads an index, with Lucene's
+ * {@link NIOFSDirectory}. The number of threads can be changed with <code>-t n</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class DirectoryReadBenchmark {
+  private static final String FILE_NAME = "data";
+  // Larger than the buffer of an input, so that every read goes to the file.
+  private static final int READ_SIZE = 8192;
+
+  @State(Scope.Benchmark)
+  public static class FileState {
+    @Param({ "FileSystemDirectory", "NIOFSDirectory" })
+    public String directory;
+
+    @Param("64")
+    public int megabytes;
+
+    IndexInput input;
+    private Directory dir;
+    private File tmp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      tmp = Files.createTempDir();
+      Random random = new Random(42);
+      byte[] block = new byte[1 << 20];
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(tmp, FILE_NAME)));
+      for (int i = 0; i < megabytes; i++) {
+        random.nextBytes(block);
+        out.write(block);
+      }
+      out.close();
+
+      if (directory.equals("FileSystemDirectory")) {
+        Configuration conf = new Configuration();
+        dir = new FileSystemDirectory(FileSystem.getLocal(conf), new Path(tmp.getAbsolutePath()),
+            false, conf);
+      } else {
+        dir = new NIOFSDirectory(tmp);
+      }
+      input = dir.openInput(FILE_NAME, IOContext.READ);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      input.close();
+      dir.close();
+      FileUtil.fullyDelete(tmp);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Reader {
+    IndexInput input;
+    final byte[] buffer = new byte[READ_SIZE];
+    Random random;
+    long maxPosition;
+
+    @Setup(Level.Trial)
+    public void setUp(FileState file) {
+      input = file.input.clone();
+      random = new Random(Thread.currentThread().getId());
+      maxPosition = input.length() - READ_SIZE;
+    }
+  }
+
+  @Benchmark
+  public byte randomRead(Reader reader) throws IOException {
+    reader.input.seek((long) (reader.random.nextDouble() * reader.maxPosition));
+    reader.input.readBytes(reader.buffer, 0, READ_SIZE);
+    return reader.buffer[READ_SIZE - 1];
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cc.wikitools.lucene.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import cc.wikitools.lucene.WikipediaSearcher;
+
+import com.google.common.io.Files;
+
+/**
+ * A {@link WikipediaSearcher} over a {@link SyntheticWikipedia} index, built once per fork in a
+ * temporary directory and shared by all benchmark threads. Its size can be changed with
+ * <code>-p articles=n</code>.
+ */
+@State(Scope.Benchmark)
+public class IndexState {
+  @Param("10000")
+  public int articles;
+
+  public WikipediaSearcher searcher;
+  private File index;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    index = Files.createTempDir();
+    SyntheticWikipedia.buildIndex(index, articles);
+    searcher = new WikipediaSearcher(index);
+    // Loads the id map and the field caches, so the first invocations aren't slow.
+    searcher.getArticleId("");
+    searcher.getArticle(0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    searcher.close();
+    for (File file : index.listFiles()) {
+      file.delete();
+    }
+    index.delete();
+  }
+}
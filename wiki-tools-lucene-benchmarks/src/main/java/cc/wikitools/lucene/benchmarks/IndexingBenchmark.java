@@ -0,0 +1,122 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cc.wikitools.lucene.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.wikitools.lucene.ArticleDocument;
+import cc.wikitools.lucene.IndexWikipediaDump;
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+/**
+ * Throughput of the work an index thread of {@link cc.wikitools.lucene.IndexingPipeline} does
+ * per article: filling a reusable {@link ArticleDocument}, analyzing the text, and adding the
+ * document to a writer. Articles are cleaned text, so the cost of parsing and cleaning the dump
+ * isn't included. Each iteration adds to a new in-memory index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexingBenchmark {
+  private static final int NUM_ARTICLES = 1000;
+
+  private final String[] titles = new String[NUM_ARTICLES];
+  private final String[] texts = new String[NUM_ARTICLES];
+  private final ArticleDocument doc = new ArticleDocument();
+  private IndexWriter writer;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void generateArticles() {
+    SyntheticWikipedia generator = new SyntheticWikipedia(11);
+    for (int i = 0; i < NUM_ARTICLES; i++) {
+      titles[i] = SyntheticWikipedia.title(i);
+      texts[i] = generator.text();
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void openWriter() throws IOException {
+    writer = IndexWikipediaDump.openWriter(new RAMDirectory(), OpenMode.CREATE);
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeWriter() throws IOException {
+    writer.close();
+  }
+
+  private int next() {
+    next = next + 1 == NUM_ARTICLES ? 0 : next + 1;
+    return next;
+  }
+
+  /**
+   * Fills the document, which includes compressing the stored text.
+   */
+  @Benchmark
+  public Document buildDocument() {
+    int i = next();
+    return doc.set(i, i, titles[i], texts[i]);
+  }
+
+  /**
+   * Runs the text through the analyzer, and returns the number of tokens.
+   */
+  @Benchmark
+  public int analyze() throws IOException {
+    TokenStream tokens = IndexWikipediaDump.ANALYZER.tokenStream(IndexField.TEXT.name,
+        new StringReader(texts[next()]));
+    int n = 0;
+    tokens.reset();
+    while (tokens.incrementToken()) {
+      n++;
+    }
+    tokens.end();
+    tokens.close();
+    return n;
+  }
+
+  @Benchmark
+  public void addDocument() throws IOException {
+    int i = next();
+    writer.addDocument(doc.set(i, i, titles[i], texts[i]));
+  }
+}
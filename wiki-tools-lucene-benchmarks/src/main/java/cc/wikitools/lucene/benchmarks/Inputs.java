@@ -0,0 +1,57 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cc.wikitools.lucene.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread queries and article ids to feed the benchmarks, generated up front so that
+ * generating them isn't measured. Each thread cycles through the same inputs, starting at a
+ * different point.
+ */
+@State(Scope.Thread)
+public class Inputs {
+  private static final int NUM_INPUTS = 1000;
+
+  public final String[] queries = new String[NUM_INPUTS];
+  public final int[] ids = new int[NUM_INPUTS];
+  public final String[] titles = new String[NUM_INPUTS];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp(IndexState index) {
+    SyntheticWikipedia generator = new SyntheticWikipedia(7);
+    for (int i = 0; i < NUM_INPUTS; i++) {
+      queries[i] = generator.query();
+      ids[i] = generator.id(index.articles);
+      titles[i] = SyntheticWikipedia.title(ids[i]);
+    }
+    next = (int) (Thread.currentThread().getId() * 31 % NUM_INPUTS);
+  }
+
+  /**
+   * Returns the index of the next input.
+   */
+  public int next() {
+    next = next + 1 == NUM_INPUTS ? 0 : next + 1;
+    return next;
+  }
+}
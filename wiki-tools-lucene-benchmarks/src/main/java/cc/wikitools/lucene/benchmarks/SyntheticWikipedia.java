@@ -0,0 +1,138 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.FSDirectory;
+
+import cc.wikitools.lucene.ArticleDocument;
+import cc.wikitools.lucene.IndexWikipediaDump;
+
+/**
+ * Generates articles, titles and queries that are the same on every run, for benchmarks. Words
+ * are drawn from a fixed vocabulary with a skewed distribution, so that, as in real text, a few
+ * terms have long postings and most have short ones. Articles have sentences and vary widely in
+ * length. Article <i>i</i> has wiki id <i>i</i> and title {@link #title(int)}, which can be
+ * computed without generating the article.
+ */
+public class SyntheticWikipedia {
+  private static final long SEED = 42;
+  private static final int VOCABULARY_SIZE = 20000;
+  private static final int MIN_WORDS = 50;
+  private static final int MAX_WORDS = 2000;
+
+  private static final String[] VOCABULARY = new String[VOCABULARY_SIZE];
+
+  static {
+    Random random = new Random(SEED);
+    for (int i = 0; i < VOCABULARY_SIZE; i++) {
+      char[] word = new char[2 + random.nextInt(9)];
+      for (int j = 0; j < word.length; j++) {
+        word[j] = (char) ('a' + random.nextInt(26));
+      }
+      VOCABULARY[i] = new String(word);
+    }
+  }
+
+  private final Random random;
+
+  public SyntheticWikipedia(long seed) {
+    this.random = new Random(seed);
+  }
+
+  private static String word(Random random) {
+    // Cubing skews draws towards the start of the vocabulary.
+    double x = random.nextDouble();
+    return VOCABULARY[(int) (x * x * x * VOCABULARY_SIZE)];
+  }
+
+  private static String words(Random random, int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      sb.append(i == 0 ? "" : " ").append(word(random));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the title of article <code>id</code>: a few words, made unique by the id.
+   */
+  public static String title(int id) {
+    Random random = new Random(SEED + id);
+    String title = words(random, 1 + random.nextInt(3));
+    return Character.toUpperCase(title.charAt(0)) + title.substring(1) + " " + id;
+  }
+
+  /**
+   * Returns the text of a new article.
+   */
+  public String text() {
+    // Most articles are short, some are long.
+    double x = random.nextDouble();
+    int n = MIN_WORDS + (int) (x * x * (MAX_WORDS - MIN_WORDS));
+    StringBuilder sb = new StringBuilder();
+    while (n > 0) {
+      int sentence = Math.min(n, 5 + random.nextInt(20));
+      String s = words(random, sentence);
+      sb.append(Character.toUpperCase(s.charAt(0))).append(s, 1, s.length()).append(". ");
+      n -= sentence;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a query of one to three words. Query words are drawn uniformly from the vocabulary,
+   * rather than as in text, so that most queries don't match almost every article.
+   */
+  public String query() {
+    StringBuilder sb = new StringBuilder();
+    int n = 1 + random.nextInt(3);
+    for (int i = 0; i < n; i++) {
+      sb.append(i == 0 ? "" : " ").append(VOCABULARY[random.nextInt(VOCABULARY_SIZE)]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a random article id below <code>numArticles</code>.
+   */
+  public int id(int numArticles) {
+    return random.nextInt(numArticles);
+  }
+
+  /**
+   * Builds an index of articles <code>0</code> to <code>numArticles - 1</code> at
+   * <code>indexLocation</code>, as {@link IndexWikipediaDump} would, and merges it into a
+   * single segment so that its layout is the same on every run.
+   */
+  public static void buildIndex(File indexLocation, int numArticles) throws IOException {
+    SyntheticWikipedia articles = new SyntheticWikipedia(SEED);
+    IndexWriter writer = IndexWikipediaDump.openWriter(FSDirectory.open(indexLocation),
+        OpenMode.CREATE);
+    ArticleDocument doc = new ArticleDocument();
+    for (int id = 0; id < numArticles; id++) {
+      writer.addDocument(doc.set(id, id, title(id), articles.text()));
+    }
+    writer.forceMerge(1);
+    writer.close();
+  }
+}
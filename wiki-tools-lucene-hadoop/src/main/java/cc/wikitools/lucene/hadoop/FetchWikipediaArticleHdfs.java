@@ -29,10 +29,8 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
-import org.apache.lucene.document.Document;
 
 import cc.wikitools.lucene.FetchWikipediaArticle;
-import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
 
 public class FetchWikipediaArticleHdfs extends Configured implements Tool {
   private static final String INDEX_OPTION = "index";
@@ -74,21 +72,21 @@ public class FetchWikipediaArticleHdfs extends Configured implements Tool {
 
     if (cmdline.hasOption(ID_OPTION)) {
       int id = Integer.parseInt(cmdline.getOptionValue(ID_OPTION));
-      Document doc = searcher.getArticle(id);
+      String text = searcher.getArticleText(id);
 
-      if (doc == null) {
+      if (text == null) {
         System.err.print("id " + id + " doesn't exist!\n");
       } else {
-        out.println(doc.getField(IndexField.TEXT.name).stringValue());
+        out.println(text);
       }
     } else {
       String title = cmdline.getOptionValue(TITLE_OPTION);
-      Document doc = searcher.getArticle(title);
+      String text = searcher.getArticleText(title);
 
-      if (doc == null) {
+      if (text == null) {
         System.err.print("article \"" + title+ "\" doesn't exist!\n");
       } else {
-        out.println(doc.getField(IndexField.TEXT.name).stringValue());
+        out.println(text);
       }
     }
 
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Collection;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumFileSystem;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
@@ -38,10 +39,18 @@ import org.apache.lucene.store.Lock;
 /**
  * This class implements a Lucene Directory on top of a general FileSystem.
  * Currently it does not support locking.
+ *
+ * Index files are read with positional reads, so clones of an input (one per
+ * searching thread, per term enum) read concurrently without seeking a shared
+ * stream or taking a lock. On a ChecksumFileSystem, such as the local file
+ * system, each positional read opens the file again to verify its checksum;
+ * see the <code>rawReads</code> constructor flag to skip that.
  */
 public class FileSystemDirectory extends Directory {
 
   private final FileSystem fs;
+  // The file system to read index files from; see the constructor.
+  private final FileSystem readFs;
   private final Path directory;
   private final int ioFileBufferSize;
 
@@ -55,8 +64,27 @@ public class FileSystemDirectory extends Directory {
    */
   public FileSystemDirectory(FileSystem fs, Path directory, boolean create,
       Configuration conf) throws IOException {
+    this(fs, directory, create, conf, false);
+  }
+
+  /**
+   * Constructor
+   * @param fs
+   * @param directory
+   * @param create
+   * @param conf
+   * @param rawReads if <code>fs</code> is a ChecksumFileSystem, read index
+   *     files from the file system underneath it, which for local files reads
+   *     from a FileChannel instead of opening the file again on every read,
+   *     but doesn't verify checksums
+   * @throws IOException
+   */
+  public FileSystemDirectory(FileSystem fs, Path directory, boolean create,
+      Configuration conf, boolean rawReads) throws IOException {
 
     this.fs = fs;
+    this.readFs = rawReads && fs instanceof ChecksumFileSystem ?
+        ((ChecksumFileSystem) fs).getRawFileSystem() : fs;
     this.directory = directory;
     this.ioFileBufferSize = conf.getInt("io.file.buffer.size", 4096);
 
@@ -233,10 +261,9 @@ public class FileSystemDirectory extends Directory {
     // shared by clones
     private class Descriptor {
       public final FSDataInputStream in;
-      public long position; // cache of in.getPos()
 
       public Descriptor(Path file, int ioFileBufferSize) throws IOException {
-        this.in = fs.open(file, ioFileBufferSize);
+        this.in = readFs.open(file, ioFileBufferSize);
       }
     }
 
@@ -257,22 +284,13 @@ public class FileSystemDirectory extends Directory {
 
     protected void readInternal(byte[] b, int offset, int len)
         throws IOException {
-      synchronized (descriptor) {
-        long position = getFilePointer();
-        if (position != descriptor.position) {
-          descriptor.in.seek(position);
-          descriptor.position = position;
-        }
-        int total = 0;
-        do {
-          int i = descriptor.in.read(b, offset + total, len - total);
-          if (i == -1) {
-            throw new IOException("Read past EOF");
-          }
-          descriptor.position += i;
-          total += i;
-        } while (total < len);
+      long position = getFilePointer();
+      if (position + len > length) {
+        throw new IOException("Read past EOF");
       }
+      // Positional reads leave the stream's own position alone, so clones
+      // don't need to coordinate.
+      descriptor.in.readFully(position, b, offset, len);
     }
 
     public void close() throws IOException {
@@ -17,21 +17,53 @@
 package cc.wikitools.lucene.hadoop;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.store.Directory;
 
+import cc.wikitools.lucene.IndexWikipediaDump;
+import cc.wikitools.lucene.RedirectTable;
 import cc.wikitools.lucene.WikipediaSearcher;
 
 public class HdfsWikipediaSearcher extends WikipediaSearcher{
   public HdfsWikipediaSearcher(Path indexLocation, Configuration conf) throws IOException {
     FileSystem fs = FileSystem.get(conf);
-    Directory directory = new FileSystemDirectory(fs, indexLocation, false, conf);
-    
-    reader = DirectoryReader.open(directory);
+
+    FileStatus[] shards = fs.listStatus(indexLocation, new PathFilter() {
+      @Override
+      public boolean accept(Path path) {
+        return path.getName().startsWith(IndexWikipediaDump.SHARD_PREFIX);
+      }
+    });
+    if (shards != null && shards.length > 0) {
+      // A sharded index, e.g., built by IndexWikipediaDumpHdfs; search across all shards.
+      Arrays.sort(shards);
+      IndexReader[] readers = new IndexReader[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        readers[i] = DirectoryReader.open(
+            new FileSystemDirectory(fs, shards[i].getPath(), false, conf));
+      }
+      reader = new MultiReader(readers, true);
+    } else {
+      Directory directory = new FileSystemDirectory(fs, indexLocation, false, conf);
+      reader = DirectoryReader.open(directory);
+    }
+
+    // The table is read into memory, so the directory isn't needed afterwards.
+    Directory redirectDir = new FileSystemDirectory(fs, indexLocation, false, conf);
+    try {
+      redirects = RedirectTable.open(redirectDir);
+    } finally {
+      redirectDir.close();
+    }
 
     init();
   }
@@ -0,0 +1,269 @@
+/**
+ * wiki-tools-lucene-hadoop: Java tools for searching Wikipedia Lucene indexes in HDFS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiCleanBuilder;
+
+import cc.wikitools.lucene.ArticleDocument;
+import cc.wikitools.lucene.IndexWikipediaDump;
+
+import com.google.common.io.Files;
+
+/**
+ * Builds a sharded index of a multistream Wikipedia dump with MapReduce. Mappers parse and clean
+ * pages, and each reducer builds one shard with the same schema as {@link IndexWikipediaDump}.
+ * Shards are written to <code>index/shard-NNN</code>, where {@link HdfsWikipediaSearcher} finds
+ * them. Each reducer also writes a line with its shard name and document count.
+ */
+public class IndexWikipediaDumpHdfs extends Configured implements Tool {
+  private static final Logger LOG = Logger.getLogger(IndexWikipediaDumpHdfs.class);
+
+  private static final int DEFAULT_NUM_SHARDS = 10;
+
+  private static final String INPUT_OPTION = "input";
+  private static final String INDEX_OPTION = "index";
+  private static final String SHARDS_OPTION = "shards";
+  private static final String OPTIMIZE_OPTION = "optimize";
+
+  private static final String OPTIMIZE_PROPERTY = "wikitools.index.optimize";
+
+  private static enum Articles { INDEXED, SKIPPED };
+
+  /**
+   * An article as it travels from mapper to reducer: the revision, the title and the cleaned text.
+   */
+  public static class ArticleWritable implements Writable {
+    private long revision;
+    private String title;
+    private String text;
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(revision);
+      Text.writeString(out, title);
+      Text.writeString(out, text);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      revision = in.readLong();
+      title = Text.readString(in);
+      text = Text.readString(in);
+    }
+  }
+
+  static class IndexMapper
+      extends Mapper<LongWritable, Text, IntWritable, ArticleWritable> {
+    private final WikiClean cleaner = new WikiCleanBuilder().withTitle(true).build();
+    private final IntWritable id = new IntWritable();
+    private final ArticleWritable article = new ArticleWritable();
+
+    @Override
+    public void map(LongWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      String page = value.toString();
+      String title = cleaner.getTitle(page);
+
+      if (!IndexWikipediaDump.isArticle(title, page)) {
+        context.getCounter(Articles.SKIPPED).increment(1);
+        return;
+      }
+
+      id.set(Integer.parseInt(cleaner.getId(page)));
+      article.revision = IndexWikipediaDump.getRevision(page);
+      article.title = title;
+      article.text = cleaner.clean(page);
+      context.write(id, article);
+    }
+  }
+
+  private static class IndexReducer extends Reducer<IntWritable, ArticleWritable, Text, IntWritable> {
+    private File localIndex;
+    private Directory dir;
+    private IndexWriter writer;
+    private final ArticleDocument doc = new ArticleDocument();
+    private int cnt = 0;
+
+    @Override
+    public void setup(Context context) throws IOException {
+      // Lucene wants random access for writing, so build the shard locally and copy it up.
+      localIndex = Files.createTempDir();
+      dir = FSDirectory.open(localIndex);
+      writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+      try {
+        super.run(context);
+      } finally {
+        // The shard is moved up in cleanup(); anything left behind is from a failed attempt.
+        if (localIndex != null && localIndex.exists()) {
+          if (writer != null) {
+            writer.rollback();
+          }
+          if (dir != null) {
+            dir.close();
+          }
+          FileUtil.fullyDelete(localIndex);
+        }
+      }
+    }
+
+    @Override
+    public void reduce(IntWritable key, Iterable<ArticleWritable> values, Context context)
+        throws IOException {
+      // There should only be one page per id; keep the first if the dump has duplicates.
+      ArticleWritable article = values.iterator().next();
+      writer.addDocument(doc.set(key.get(), article.revision, article.title, article.text));
+
+      cnt++;
+      context.getCounter(Articles.INDEXED).increment(1);
+      if (cnt % 10000 == 0) {
+        LOG.info(cnt + " articles added");
+        context.progress();
+      }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      if (context.getConfiguration().getBoolean(OPTIMIZE_PROPERTY, false)) {
+        LOG.info("Merging segments...");
+        writer.forceMerge(1);
+      }
+      writer.close();
+      writer = null;
+      dir.close();
+      dir = null;
+
+      // Written to the task's work directory, so only the committed attempt's shard survives.
+      String shard = IndexWikipediaDump.getShardName(context.getTaskAttemptID().getTaskID().getId());
+      Path output = new Path(FileOutputFormat.getWorkOutputPath(context), shard);
+      FileSystem fs = output.getFileSystem(context.getConfiguration());
+      fs.copyFromLocalFile(true, true, new Path(localIndex.getAbsolutePath()), output);
+
+      LOG.info(shard + ": " + cnt + " articles");
+      context.write(new Text(shard), new IntWritable(cnt));
+    }
+  }
+
+  @SuppressWarnings("static-access")
+  @Override
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("bz2 Wikipedia multistream XML dump file").create(INPUT_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("index location").create(INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of shards (reducers), default " + DEFAULT_NUM_SHARDS)
+        .create(SHARDS_OPTION));
+
+    options.addOption(new Option(OPTIMIZE_OPTION, "merge each shard into a single segment"));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      return -1;
+    }
+
+    if (!cmdline.hasOption(INPUT_OPTION) || !cmdline.hasOption(INDEX_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(IndexWikipediaDumpHdfs.class.getName(), options);
+      return -1;
+    }
+
+    Path input = new Path(cmdline.getOptionValue(INPUT_OPTION));
+    Path index = new Path(cmdline.getOptionValue(INDEX_OPTION));
+    int shards = cmdline.hasOption(SHARDS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(SHARDS_OPTION)) : DEFAULT_NUM_SHARDS;
+
+    LOG.info("Tool: " + IndexWikipediaDumpHdfs.class.getSimpleName());
+    LOG.info(" - input: " + input);
+    LOG.info(" - index: " + index);
+    LOG.info(" - shards: " + shards);
+
+    Job job = new Job(getConf(), IndexWikipediaDumpHdfs.class.getSimpleName() + ":" + input);
+    job.setJarByClass(IndexWikipediaDumpHdfs.class);
+    job.getConfiguration().setBoolean(OPTIMIZE_PROPERTY, cmdline.hasOption(OPTIMIZE_OPTION));
+
+    job.setNumReduceTasks(shards);
+    FileInputFormat.setInputPaths(job, input);
+    FileOutputFormat.setOutputPath(job, index);
+
+    job.setInputFormatClass(WikipediaMultistreamInputFormat.class);
+    job.setOutputFormatClass(TextOutputFormat.class);
+
+    job.setMapOutputKeyClass(IntWritable.class);
+    job.setMapOutputValueClass(ArticleWritable.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(IntWritable.class);
+
+    job.setMapperClass(IndexMapper.class);
+    job.setReducerClass(IndexReducer.class);
+
+    FileSystem.get(index.toUri(), getConf()).delete(index, true);
+
+    long startTime = System.currentTimeMillis();
+    boolean success = job.waitForCompletion(true);
+    LOG.info("Job finished in " + (System.currentTimeMillis() - startTime) + "ms");
+
+    return success ? 0 : -1;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new IndexWikipediaDumpHdfs(), args));
+  }
+}
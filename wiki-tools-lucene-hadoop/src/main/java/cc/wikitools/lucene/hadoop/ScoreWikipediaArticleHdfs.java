@@ -22,6 +22,7 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -35,6 +36,7 @@ public class ScoreWikipediaArticleHdfs extends Configured implements Tool {
   private static final String ID_OPTION = "id";
   private static final String TITLE_OPTION = "title";
   private static final String QUERY_OPTION = "q";
+  private static final String EXPLAIN_OPTION = "explain";
 
   @SuppressWarnings("static-access")
   @Override
@@ -49,6 +51,8 @@ public class ScoreWikipediaArticleHdfs extends Configured implements Tool {
     options.addOption(OptionBuilder.withArgName("string").hasArg()
         .withDescription("query text").create(QUERY_OPTION));
 
+    options.addOption(new Option(EXPLAIN_OPTION, "print out how the score is computed"));
+
     CommandLine cmdline = null;
     CommandLineParser parser = new GnuParser();
     try {
@@ -73,10 +77,17 @@ public class ScoreWikipediaArticleHdfs extends Configured implements Tool {
     PrintStream out = new PrintStream(System.out, true, "UTF-8");
 
     if (cmdline.hasOption(ID_OPTION)) {
-      out.println("score: " + searcher.scoreArticle(queryText,
-          Integer.parseInt(cmdline.getOptionValue(ID_OPTION))));
+      int id = Integer.parseInt(cmdline.getOptionValue(ID_OPTION));
+      if (cmdline.hasOption(EXPLAIN_OPTION)) {
+        out.println(searcher.explainArticle(queryText, id));
+      }
+      out.println("score: " + searcher.scoreArticle(queryText, id));
     } else {
-      out.println("score: " + searcher.scoreArticle(queryText, cmdline.getOptionValue(TITLE_OPTION)));
+      String title = cmdline.getOptionValue(TITLE_OPTION);
+      if (cmdline.hasOption(EXPLAIN_OPTION)) {
+        out.println(searcher.explainArticle(queryText, title));
+      }
+      out.println("score: " + searcher.scoreArticle(queryText, title));
     }
 
     searcher.close();
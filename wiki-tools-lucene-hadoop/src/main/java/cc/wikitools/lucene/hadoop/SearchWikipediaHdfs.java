@@ -30,11 +30,9 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
-import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+import cc.wikitools.lucene.SearchResult;
 
 public class SearchWikipediaHdfs extends Configured implements Tool {
   private static final int DEFAULT_NUM_RESULTS = 10;
@@ -94,17 +92,17 @@ public class SearchWikipediaHdfs extends Configured implements Tool {
     } else {
       rs = searcher.searchTitle(queryText, numResults);
     }
+    if (rs == null) {
+      System.err.println("Error: unable to parse query \"" + queryText + "\"");
+      searcher.close();
+      return -1;
+    }
 
     int i = 1;
-    for (ScoreDoc scoreDoc : rs.scoreDocs) {
-      Document hit = searcher.doc(scoreDoc.doc);
-
-      out.println(String.format("%d. %s (id = %s) %f", i,
-          hit.getField(IndexField.TITLE.name).stringValue(),
-          hit.getField(IndexField.ID.name).stringValue(), 
-          scoreDoc.score));
+    for (SearchResult result : searcher.renderResults(rs)) {
+      out.println(String.format("%d. %s (id = %d) %f", i, result.title, result.id, result.score));
       if (verbose) {
-        out.println("# " + hit.toString().replaceAll("[\\n\\r]+", " "));
+        out.println("# " + searcher.doc(result.docid).toString().replaceAll("[\\n\\r]+", " "));
       }
       i++;
     }
@@ -0,0 +1,120 @@
+/**
+ * wiki-tools-lucene-hadoop: Java tools for searching Wikipedia Lucene indexes in HDFS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.hadoop;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import cc.wikitools.lucene.Bz2StreamSplitter;
+import cc.wikitools.lucene.WikipediaMultistreamDumpReader;
+
+/**
+ * Input format for <code>pages-articles-multistream</code> Wikipedia dumps. Splits are byte
+ * ranges of the file; each split reads the bz2 streams that start inside it, and may read past
+ * its end to finish the last one. Keys are stream offsets and values are the raw XML of pages.
+ */
+public class WikipediaMultistreamInputFormat extends FileInputFormat<LongWritable, Text> {
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+      TaskAttemptContext context) {
+    return new PageRecordReader();
+  }
+
+  private static class PageRecordReader extends RecordReader<LongWritable, Text> {
+    private Bz2StreamSplitter splitter;
+    private long start;
+    private long end;
+    private boolean done = false;
+
+    private Iterator<String> pages;
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+        throws IOException {
+      FileSplit split = (FileSplit) genericSplit;
+      start = split.getStart();
+      end = start + split.getLength();
+
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(context.getConfiguration());
+      FSDataInputStream in = fs.open(file);
+      in.seek(start);
+
+      splitter = new Bz2StreamSplitter(in, start);
+      // The stream in progress at the start of the split belongs to the previous split.
+      done = !splitter.skipToStreamStart() || splitter.getPosition() >= end;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      while (pages == null || !pages.hasNext()) {
+        if (done || splitter.getPosition() >= end) {
+          done = true;
+          return false;
+        }
+        byte[] stream = splitter.next();
+        if (stream == null) {
+          done = true;
+          return false;
+        }
+        key.set(splitter.getOffset());
+        pages = WikipediaMultistreamDumpReader.decompressPages(stream).iterator();
+      }
+
+      value.set(pages.next());
+      return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+      return value;
+    }
+
+    @Override
+    public float getProgress() {
+      if (done || end == start) {
+        return 1.0f;
+      }
+      return Math.min(1.0f, (splitter.getPosition() - start) / (float) (end - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (splitter != null) {
+        splitter.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * wiki-tools-lucene-hadoop: Java tools for searching Wikipedia Lucene indexes in HDFS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.hadoop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class FileSystemDirectoryTest {
+  private static final int FILE_SIZE = 1 << 20;
+  private static final int THREADS = 8;
+  private static final int READS = 2000;
+
+  @Test
+  public void testConcurrentClones() throws Exception {
+    for (boolean rawReads : new boolean[] { false, true }) {
+      checkConcurrentClones(rawReads);
+    }
+  }
+
+  @Test
+  public void testChecksums() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      Configuration conf = new Configuration();
+      FileSystem fs = FileSystem.getLocal(conf);
+      Path path = new Path(tmp.getAbsolutePath());
+      IndexOutput out = new FileSystemDirectory(fs, path, false, conf).createOutput("data");
+      out.writeBytes(new byte[1024], 1024);
+      out.close();
+
+      // Corrupt the file behind the checksum file system's back.
+      RandomAccessFile file = new RandomAccessFile(new File(tmp, "data"), "rw");
+      file.seek(100);
+      file.write(1);
+      file.close();
+
+      byte[] buffer = new byte[1024];
+      IndexInput in =
+          new FileSystemDirectory(fs, path, false, conf).openInput("data", IOContext.READ);
+      try {
+        in.readBytes(buffer, 0, buffer.length);
+        fail();
+      } catch (ChecksumException e) {
+        // Checksums are verified by default.
+      }
+      in.close();
+
+      in = new FileSystemDirectory(fs, path, false, conf, true)
+          .openInput("data", IOContext.READ);
+      in.readBytes(buffer, 0, buffer.length);
+      assertEquals(1, buffer[100]);
+      in.close();
+    } finally {
+      FileUtil.fullyDelete(tmp);
+    }
+  }
+
+  private static void checkConcurrentClones(boolean rawReads) throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      Configuration conf = new Configuration();
+      FileSystem fs = FileSystem.getLocal(conf);
+      FileSystemDirectory dir =
+          new FileSystemDirectory(fs, new Path(tmp.getAbsolutePath()), false, conf, rawReads);
+
+      final byte[] data = new byte[FILE_SIZE];
+      new Random(42).nextBytes(data);
+      IndexOutput out = dir.createOutput("data");
+      out.writeBytes(data, data.length);
+      out.close();
+
+      final IndexInput in = dir.openInput("data", IOContext.READ);
+      assertEquals(FILE_SIZE, in.length());
+
+      // Every thread reads random ranges through its own clone, as searching threads do.
+      final AtomicInteger errors = new AtomicInteger();
+      ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+      for (int t = 0; t < THREADS; t++) {
+        final int seed = t;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            IndexInput clone = in.clone();
+            Random random = new Random(seed);
+            byte[] buffer = new byte[4096];
+            try {
+              for (int i = 0; i < READS; i++) {
+                int len = 1 + random.nextInt(buffer.length);
+                int pos = random.nextInt(FILE_SIZE - len);
+                clone.seek(pos);
+                clone.readBytes(buffer, 0, len);
+                for (int j = 0; j < len; j++) {
+                  if (buffer[j] != data[pos + j]) {
+                    errors.incrementAndGet();
+                    return;
+                  }
+                }
+              }
+            } catch (Exception e) {
+              e.printStackTrace();
+              errors.incrementAndGet();
+            }
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+      assertEquals(0, errors.get());
+
+      byte[] all = new byte[FILE_SIZE];
+      in.seek(0);
+      in.readBytes(all, 0, all.length);
+      assertArrayEquals(data, all);
+      in.close();
+    } finally {
+      FileUtil.fullyDelete(tmp);
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FileSystemDirectoryTest.class);
+  }
+}
@@ -0,0 +1,211 @@
+/**
+ * wiki-tools-lucene-hadoop: Java tools for searching Wikipedia Lucene indexes in HDFS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Test;
+
+import cc.wikitools.lucene.hadoop.IndexWikipediaDumpHdfs.ArticleWritable;
+import cc.wikitools.lucene.hadoop.IndexWikipediaDumpHdfs.IndexMapper;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+public class IndexWikipediaDumpHdfsTest {
+  private static final int NUM_PAGES = 500;
+  private static final int PAGES_PER_STREAM = 20;
+
+  @Test
+  public void testLocalJob() throws Exception {
+    File tmp = Files.createTempDir();
+    try {
+      File dump = new File(tmp, "dump.xml.bz2");
+      writeDump(dump);
+
+      Configuration conf = new Configuration();
+      conf.set("mapred.job.tracker", "local");
+      conf.set("fs.default.name", "file:///");
+      // Small splits, so that streams straddle split boundaries.
+      conf.setLong("mapred.max.split.size", dump.length() / 7);
+
+      String index = new File(tmp, "index").getAbsolutePath();
+      assertEquals(0, ToolRunner.run(conf, new IndexWikipediaDumpHdfs(),
+          new String[] { "-input", dump.getAbsolutePath(), "-index", index, "-shards", "1" }));
+
+      HdfsWikipediaSearcher searcher = new HdfsWikipediaSearcher(new Path(index), conf);
+      // Every tenth page is a redirect.
+      assertEquals(NUM_PAGES - NUM_PAGES / 10, searcher.searchArticle("article", 1).totalHits);
+      assertEquals(42, searcher.getArticleId("Article 42"));
+      searcher.close();
+    } finally {
+      FileUtil.fullyDelete(tmp);
+    }
+  }
+
+  @Test
+  public void testShardsPartitionArticles() throws Exception {
+    // The local job runner only runs a single reducer, so run the mappers over every split and
+    // send their output through the job's partitioner, as the shuffle would.
+    File tmp = Files.createTempDir();
+    try {
+      File dump = new File(tmp, "dump.xml.bz2");
+      writeDump(dump);
+
+      Configuration conf = new Configuration();
+      conf.set("fs.default.name", "file:///");
+      conf.setLong("mapred.max.split.size", dump.length() / 7);
+      Job job = new Job(conf);
+      FileInputFormat.setInputPaths(job, new Path(dump.getAbsolutePath()));
+
+      final int shards = 3;
+      final List<Set<Integer>> ids = Lists.newArrayList();
+      for (int i = 0; i < shards; i++) {
+        ids.add(Sets.<Integer>newHashSet());
+      }
+      final Partitioner<IntWritable, ArticleWritable> partitioner =
+          new HashPartitioner<IntWritable, ArticleWritable>();
+      RecordWriter<IntWritable, ArticleWritable> shuffle =
+          new RecordWriter<IntWritable, ArticleWritable>() {
+        @Override
+        public void write(IntWritable key, ArticleWritable value) {
+          for (Set<Integer> shard : ids) {
+            assertFalse(shard.contains(key.get()));
+          }
+          ids.get(partitioner.getPartition(key, value, shards)).add(key.get());
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {}
+      };
+      final Counters counters = new Counters();
+      StatusReporter reporter = new StatusReporter() {
+        @Override
+        public Counter getCounter(Enum<?> name) {
+          return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+          return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {}
+
+        @Override
+        public void setStatus(String status) {}
+
+        @Override
+        public float getProgress() {
+          return 0;
+        }
+      };
+
+      WikipediaMultistreamInputFormat format = new WikipediaMultistreamInputFormat();
+      List<InputSplit> splits = format.getSplits(job);
+      assertTrue(splits.size() > 1);
+      for (InputSplit split : splits) {
+        TaskAttemptContext context = new TaskAttemptContext(conf, new TaskAttemptID());
+        RecordReader<LongWritable, Text> reader = format.createRecordReader(split, context);
+        reader.initialize(split, context);
+        IndexMapper mapper = new IndexMapper();
+        mapper.run(mapper.new Context(conf, new TaskAttemptID(), reader, shuffle, null, reporter,
+            split));
+        reader.close();
+      }
+
+      // Every article lands in exactly one shard, and every shard gets some.
+      int total = 0;
+      for (Set<Integer> shard : ids) {
+        assertFalse(shard.isEmpty());
+        total += shard.size();
+      }
+      assertEquals(NUM_PAGES - NUM_PAGES / 10, total);
+      for (int id = 1; id <= NUM_PAGES; id++) {
+        int found = 0;
+        for (Set<Integer> shard : ids) {
+          found += shard.contains(id) ? 1 : 0;
+        }
+        assertEquals(id % 10 == 0 ? 0 : 1, found);
+      }
+    } finally {
+      FileUtil.fullyDelete(tmp);
+    }
+  }
+
+  private static void writeDump(File file) throws Exception {
+    OutputStream out = new FileOutputStream(file);
+    writeStream(out, "<mediawiki>\n");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1; i <= NUM_PAGES; i++) {
+      String title = "Article " + i;
+      String text = i % 10 == 0 ? "#REDIRECT [[Article 1]]" : "Some text about article number " + i;
+      sb.append("<page>\n<title>").append(title).append("</title>\n<ns>0</ns>\n<id>").append(i)
+          .append("</id>\n<revision>\n<text xml:space=\"preserve\">").append(text)
+          .append("</text>\n</revision>\n</page>\n");
+      if (i % PAGES_PER_STREAM == 0) {
+        writeStream(out, sb.toString());
+        sb.setLength(0);
+      }
+    }
+    writeStream(out, "</mediawiki>\n");
+    out.close();
+  }
+
+  private static void writeStream(OutputStream out, String s) throws Exception {
+    // finish() ends the stream without closing the file, so the next stream is appended.
+    BZip2CompressorOutputStream bz2 = new BZip2CompressorOutputStream(out);
+    bz2.write(s.getBytes(Charsets.UTF_8));
+    bz2.finish();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexWikipediaDumpHdfsTest.class);
+  }
+}
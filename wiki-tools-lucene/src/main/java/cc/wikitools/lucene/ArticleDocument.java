@@ -0,0 +1,185 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reusable Lucene document for a Wikipedia article. The fields are created once and only their
+ * values change from article to article, so indexing doesn't allocate a document per page.
+ * Not thread-safe: each indexing thread should hold its own instances, and an instance must not
+ * be refilled until the writer is done with it.
+ *
+ * <p>The article text is indexed as usual, but stored separately as a compressed binary field,
+ * one article at a time, and placed after the id and title. With {@link WikipediaCodec}, loading
+ * the id and title of an article then never touches its text. Use {@link #getText(Document)} to
+ * read the text back.</p>
+ */
+public class ArticleDocument {
+  private static final FieldType INDEXED_TEXT_OPTIONS = new FieldType(IndexWikipediaDump.TEXT_OPTIONS);
+  private static final FieldType INDEXED_TEXT_WITH_OFFSETS_OPTIONS =
+      new FieldType(IndexWikipediaDump.TEXT_OPTIONS);
+
+  static {
+    INDEXED_TEXT_OPTIONS.setStored(false);
+    INDEXED_TEXT_OPTIONS.freeze();
+    INDEXED_TEXT_WITH_OFFSETS_OPTIONS.setStored(false);
+    INDEXED_TEXT_WITH_OFFSETS_OPTIONS.setIndexOptions(
+        IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+    INDEXED_TEXT_WITH_OFFSETS_OPTIONS.freeze();
+  }
+
+  private final Document doc = new Document();
+  private final IntField id = new IntField(IndexField.ID.name, 0, Field.Store.YES);
+  private final Field text;
+  private final Field title = new Field(IndexField.TITLE.name, "", IndexWikipediaDump.TEXT_OPTIONS);
+  // The title as a single term, for exact lookups without analysis or stored fields.
+  private final Field titleExact = new StringField(IndexField.TITLE_EXACT.name, "", Field.Store.NO);
+  private final NumericDocValuesField revision = new NumericDocValuesField(IndexField.REVISION.name, -1);
+  private final StoredField storedText = new StoredField(IndexField.TEXT.name, new BytesRef());
+  // Id and title as doc values, so results can be listed without loading stored fields.
+  private final NumericDocValuesField idValue = new NumericDocValuesField(IndexField.ID.name, 0);
+  private final BinaryDocValuesField titleValue =
+      new BinaryDocValuesField(IndexField.TITLE.name, new BytesRef());
+
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private byte[] buffer = new byte[1024];
+
+  public ArticleDocument() {
+    this(false);
+  }
+
+  /**
+   * @param offsets whether to record the character offsets of terms in the article text, so that
+   *     {@link WikipediaSearcher#getSnippets(String, org.apache.lucene.search.TopDocs, int)}
+   *     doesn't need to re-analyze the text
+   */
+  public ArticleDocument(boolean offsets) {
+    text = new Field(IndexField.TEXT.name, "",
+        offsets ? INDEXED_TEXT_WITH_OFFSETS_OPTIONS : INDEXED_TEXT_OPTIONS);
+
+    // Stored fields are stored in this order; the text goes last, so it's easy to skip.
+    doc.add(id);
+    doc.add(title);
+    doc.add(text);
+    doc.add(titleExact);
+    doc.add(revision);
+    doc.add(storedText);
+    doc.add(idValue);
+    doc.add(titleValue);
+  }
+
+  /**
+   * @param revision id of the page revision, or -1 if unknown; used by incremental updates
+   */
+  public Document set(int id, long revision, String title, String text) {
+    this.id.setIntValue(id);
+    this.revision.setLongValue(revision);
+    this.text.setStringValue(text);
+    this.title.setStringValue(title);
+    this.titleExact.setStringValue(title);
+    this.storedText.setBytesValue(compress(text));
+    this.idValue.setLongValue(id);
+    this.titleValue.setBytesValue(new BytesRef(title));
+    return doc;
+  }
+
+  public Document getDocument() {
+    return doc;
+  }
+
+  /**
+   * Compresses text into the reused buffer: the length of its UTF-8 encoding as four bytes,
+   * followed by the deflated bytes.
+   */
+  private BytesRef compress(String text) {
+    byte[] utf8 = text.getBytes(Charsets.UTF_8);
+    deflater.reset();
+    deflater.setInput(utf8);
+    deflater.finish();
+
+    int len = 4;
+    while (!deflater.finished()) {
+      if (len == buffer.length) {
+        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+      }
+      len += deflater.deflate(buffer, len, buffer.length - len);
+    }
+    buffer[0] = (byte) (utf8.length >>> 24);
+    buffer[1] = (byte) (utf8.length >>> 16);
+    buffer[2] = (byte) (utf8.length >>> 8);
+    buffer[3] = (byte) utf8.length;
+    return new BytesRef(buffer, 0, len);
+  }
+
+  /**
+   * Returns the text of a stored article, or <code>null</code> if the text wasn't loaded. Also
+   * reads indexes written before the text was stored compressed.
+   */
+  public static String getText(Document doc) {
+    IndexableField field = doc.getField(IndexField.TEXT.name);
+    if (field == null) {
+      return null;
+    }
+    BytesRef bytes = field.binaryValue();
+    if (bytes == null) {
+      return field.stringValue();
+    }
+
+    byte[] b = bytes.bytes;
+    int off = bytes.offset;
+    int len = ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+        | (b[off + 3] & 0xff);
+    byte[] utf8 = new byte[len];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(b, off + 4, bytes.length - 4);
+      int n = 0;
+      while (n < len) {
+        int inflated = inflater.inflate(utf8, n, len - n);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new IllegalStateException("truncated article text");
+        }
+        n += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("corrupt article text", e);
+    } finally {
+      inflater.end();
+    }
+    return new String(utf8, Charsets.UTF_8);
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a concatenation of bz2 streams, such as a multistream Wikipedia dump, into the
+ * compressed bytes of the individual streams. The input may start anywhere in the file: call
+ * {@link #skipToStreamStart()} to drop the tail of a stream that began before it.
+ */
+public class Bz2StreamSplitter {
+  // A stream starts with "BZh" and the block size, followed by the magic number of its first
+  // block (the BCD digits of pi). Every stream in a multistream dump starts on a byte boundary.
+  private static final byte[] STREAM_MAGIC =
+      { 'B', 'Z', 'h', 0, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+
+  // A larger "stream" means this isn't a multistream dump; don't try to buffer all of it.
+  private static final int MAX_STREAM_SIZE = 64 * 1024 * 1024;
+  private static final int READ_SIZE = 64 * 1024;
+
+  private final InputStream in;
+  private byte[] buf = new byte[4 * READ_SIZE];
+  private int len = 0;
+  // Position from which to look for the start of the next stream.
+  private int scan = 1;
+  private boolean eof = false;
+
+  // Offset in the file of buf[0], and of the stream last returned.
+  private long position;
+  private long offset = -1;
+
+  /**
+   * @param in input, positioned at <code>start</code> in the file
+   * @param start offset of the input in the file, used to report stream offsets
+   */
+  public Bz2StreamSplitter(InputStream in, long start) {
+    this.in = in;
+    this.position = start;
+  }
+
+  public Bz2StreamSplitter(InputStream in) {
+    this(in, 0);
+  }
+
+  /**
+   * Skips ahead to the first stream that starts at or after the current position.
+   *
+   * @return <code>false</code> if there is no such stream
+   */
+  public boolean skipToStreamStart() throws IOException {
+    while (true) {
+      for (int i = 0; i <= len - STREAM_MAGIC.length; i++) {
+        if (isStreamStart(buf, i)) {
+          consume(i);
+          return true;
+        }
+      }
+      if (eof) {
+        consume(len);
+        return false;
+      }
+      // Keep the last few bytes, in case the header is split across reads.
+      consume(Math.max(0, len - STREAM_MAGIC.length + 1));
+      fill();
+    }
+  }
+
+  /**
+   * Returns the bytes of the next stream, or <code>null</code> at the end of the input.
+   */
+  public byte[] next() throws IOException {
+    while (true) {
+      for (int i = scan; i <= len - STREAM_MAGIC.length; i++) {
+        if (isStreamStart(buf, i)) {
+          offset = position;
+          byte[] stream = Arrays.copyOf(buf, i);
+          consume(i);
+          return stream;
+        }
+      }
+      scan = Math.max(1, len - STREAM_MAGIC.length + 1);
+
+      if (eof) {
+        if (len == 0) {
+          return null;
+        }
+        offset = position;
+        byte[] stream = Arrays.copyOf(buf, len);
+        consume(len);
+        return stream;
+      }
+
+      fill();
+    }
+  }
+
+  /**
+   * Returns the offset in the file of the stream last returned by {@link #next()}.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the offset in the file of the next stream to be returned by {@link #next()}.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private void consume(int n) {
+    System.arraycopy(buf, n, buf, 0, len - n);
+    len -= n;
+    position += n;
+    scan = 1;
+  }
+
+  private void fill() throws IOException {
+    if (len + READ_SIZE > buf.length) {
+      if (buf.length >= MAX_STREAM_SIZE) {
+        throw new IOException("Found a bz2 stream larger than " + MAX_STREAM_SIZE
+            + " bytes: not a multistream dump?");
+      }
+      buf = Arrays.copyOf(buf, 2 * buf.length);
+    }
+    int n = in.read(buf, len, READ_SIZE);
+    if (n == -1) {
+      eof = true;
+    } else {
+      len += n;
+    }
+  }
+
+  private static boolean isStreamStart(byte[] b, int i) {
+    for (int j = 0; j < STREAM_MAGIC.length; j++) {
+      if (j == 3) {
+        if (b[i + j] < '1' || b[i + j] > '9') {
+          return false;
+        }
+      } else if (b[i + j] != STREAM_MAGIC[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.lucene.search.TopDocs;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Compares the latency of serial searches with searches that run over the index segments in
+ * parallel (see {@link WikipediaSearcher#setSearchThreads(int)}). Every query is run against
+ * both, alternating which goes first, and the latency distribution of each is printed, along
+ * with any queries on which the two disagree.
+ */
+public class CompareSearchLatency {
+  private static final int DEFAULT_NUM_RESULTS = 10;
+  private static final int DEFAULT_RUNS = 3;
+
+  private static final String INDEX_OPTION = "index";
+  private static final String QUERIES_OPTION = "queries";
+  private static final String NUM_RESULTS_OPTION = "num_results";
+  private static final String SEARCH_THREADS_OPTION = "search_threads";
+  private static final String RUNS_OPTION = "runs";
+  private static final String TITLE_OPTION = "title";
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("index location").create(INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("file of queries, one per line").create(QUERIES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of results to return").create(NUM_RESULTS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of threads for parallel search (default: number of cores)")
+        .create(SEARCH_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of timed passes over the queries (default: " + DEFAULT_RUNS + ")")
+        .create(RUNS_OPTION));
+
+    options.addOption(new Option(TITLE_OPTION, "search title"));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      System.exit(-1);
+    }
+
+    if (!cmdline.hasOption(INDEX_OPTION) || !cmdline.hasOption(QUERIES_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(CompareSearchLatency.class.getName(), options);
+      System.exit(-1);
+    }
+
+    File indexLocation = new File(cmdline.getOptionValue(INDEX_OPTION));
+    if (!indexLocation.exists()) {
+      System.err.println("Error: " + indexLocation + " does not exist!");
+      System.exit(-1);
+    }
+
+    int numResults = cmdline.hasOption(NUM_RESULTS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(NUM_RESULTS_OPTION)) : DEFAULT_NUM_RESULTS;
+    int threads = cmdline.hasOption(SEARCH_THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(SEARCH_THREADS_OPTION))
+        : Runtime.getRuntime().availableProcessors();
+    int runs = cmdline.hasOption(RUNS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(RUNS_OPTION)) : DEFAULT_RUNS;
+    boolean title = cmdline.hasOption(TITLE_OPTION);
+
+    List<String> queries = Lists.newArrayList();
+    for (String line : Files.readLines(new File(cmdline.getOptionValue(QUERIES_OPTION)), Charsets.UTF_8)) {
+      if (!line.trim().isEmpty()) {
+        queries.add(line.trim());
+      }
+    }
+
+    if (queries.isEmpty()) {
+      System.err.println("Error: no queries");
+      System.exit(-1);
+    }
+
+    PrintStream out = new PrintStream(System.out, true, "UTF-8");
+
+    WikipediaSearcher serial = new WikipediaSearcher(indexLocation);
+    WikipediaSearcher parallel = new WikipediaSearcher(indexLocation);
+    parallel.setSearchThreads(threads);
+    out.println(String.format("%d queries, %d segments, %d search threads", queries.size(),
+        serial.getIndexReader().leaves().size(), threads));
+
+    // One untimed pass to warm up the JIT and the OS cache.
+    for (String q : queries) {
+      search(serial, q, numResults, title);
+      search(parallel, q, numResults, title);
+    }
+
+    long[] serialNanos = new long[runs * queries.size()];
+    long[] parallelNanos = new long[runs * queries.size()];
+    int mismatches = 0;
+    int cnt = 0;
+    for (int run = 0; run < runs; run++) {
+      for (String q : queries) {
+        TopDocs a;
+        TopDocs b;
+        long start;
+        // Alternate the order, so neither side always gets the warmer caches.
+        if (cnt % 2 == 0) {
+          start = System.nanoTime();
+          a = search(serial, q, numResults, title);
+          serialNanos[cnt] = System.nanoTime() - start;
+          start = System.nanoTime();
+          b = search(parallel, q, numResults, title);
+          parallelNanos[cnt] = System.nanoTime() - start;
+        } else {
+          start = System.nanoTime();
+          b = search(parallel, q, numResults, title);
+          parallelNanos[cnt] = System.nanoTime() - start;
+          start = System.nanoTime();
+          a = search(serial, q, numResults, title);
+          serialNanos[cnt] = System.nanoTime() - start;
+        }
+        cnt++;
+
+        if (run == 0 && !sameResults(a, b)) {
+          out.println("Results differ for query: " + q);
+          mismatches++;
+        }
+      }
+    }
+
+    out.println(summarize("serial", serialNanos));
+    out.println(summarize("parallel", parallelNanos));
+    out.println(mismatches + " queries with different results");
+
+    serial.close();
+    parallel.close();
+    out.close();
+  }
+
+  private static TopDocs search(WikipediaSearcher searcher, String q, int numResults,
+      boolean title) {
+    return title ? searcher.searchTitle(q, numResults) : searcher.searchArticle(q, numResults);
+  }
+
+  private static boolean sameResults(TopDocs a, TopDocs b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    if (a.totalHits != b.totalHits || a.scoreDocs.length != b.scoreDocs.length) {
+      return false;
+    }
+    for (int i = 0; i < a.scoreDocs.length; i++) {
+      if (a.scoreDocs[i].doc != b.scoreDocs[i].doc) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static String summarize(String name, long[] nanos) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    long total = 0;
+    for (long n : sorted) {
+      total += n;
+    }
+    return String.format("%-8s mean %.2fms, p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms", name,
+        total / 1e6 / sorted.length, percentile(sorted, 50), percentile(sorted, 90),
+        percentile(sorted, 99), sorted[sorted.length - 1] / 1e6);
+  }
+
+  private static double percentile(long[] sorted, int p) {
+    int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, i)] / 1e6;
+  }
+}
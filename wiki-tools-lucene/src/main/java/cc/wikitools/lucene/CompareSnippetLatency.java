@@ -0,0 +1,179 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.lucene.search.TopDocs;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Compares the latency of building snippets from the offsets stored in the postings with
+ * building them by analyzing the article text again (see
+ * {@link WikipediaSearcher#getSnippets(String, TopDocs, int)}). The index should be built with
+ * <code>IndexWikipediaDump -offsets</code>. Every query is searched once, untimed, and snippets
+ * of its hits are then built both ways, alternating which goes first. The latency distribution of
+ * each is printed, and with <code>-print</code>, the snippets themselves.
+ */
+public class CompareSnippetLatency {
+  private static final int DEFAULT_NUM_RESULTS = 10;
+  private static final int DEFAULT_PASSAGES = 2;
+  private static final int DEFAULT_RUNS = 3;
+
+  private static final String INDEX_OPTION = "index";
+  private static final String QUERIES_OPTION = "queries";
+  private static final String NUM_RESULTS_OPTION = "num_results";
+  private static final String PASSAGES_OPTION = "passages";
+  private static final String RUNS_OPTION = "runs";
+  private static final String PRINT_OPTION = "print";
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("index location").create(INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("file of queries, one per line").create(QUERIES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of results to return").create(NUM_RESULTS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of passages per snippet (default: " + DEFAULT_PASSAGES + ")")
+        .create(PASSAGES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of timed passes over the queries (default: " + DEFAULT_RUNS + ")")
+        .create(RUNS_OPTION));
+
+    options.addOption(new Option(PRINT_OPTION, "print the snippets of the first pass"));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      System.exit(-1);
+    }
+
+    if (!cmdline.hasOption(INDEX_OPTION) || !cmdline.hasOption(QUERIES_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(CompareSnippetLatency.class.getName(), options);
+      System.exit(-1);
+    }
+
+    File indexLocation = new File(cmdline.getOptionValue(INDEX_OPTION));
+    if (!indexLocation.exists()) {
+      System.err.println("Error: " + indexLocation + " does not exist!");
+      System.exit(-1);
+    }
+
+    int numResults = cmdline.hasOption(NUM_RESULTS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(NUM_RESULTS_OPTION)) : DEFAULT_NUM_RESULTS;
+    int passages = cmdline.hasOption(PASSAGES_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(PASSAGES_OPTION)) : DEFAULT_PASSAGES;
+    int runs = cmdline.hasOption(RUNS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(RUNS_OPTION)) : DEFAULT_RUNS;
+    boolean print = cmdline.hasOption(PRINT_OPTION);
+
+    PrintStream out = new PrintStream(System.out, true, "UTF-8");
+    WikipediaSearcher searcher = new WikipediaSearcher(indexLocation);
+
+    List<String> queries = Lists.newArrayList();
+    List<TopDocs> results = Lists.newArrayList();
+    for (String line : Files.readLines(new File(cmdline.getOptionValue(QUERIES_OPTION)), Charsets.UTF_8)) {
+      String q = line.trim();
+      TopDocs rs = q.isEmpty() ? null : searcher.searchArticle(q, numResults);
+      if (rs != null) {
+        queries.add(q);
+        results.add(rs);
+      }
+    }
+
+    if (queries.isEmpty()) {
+      System.err.println("Error: no queries");
+      System.exit(-1);
+    }
+
+    if (!WikipediaSearcher.hasOffsets(searcher.getIndexReader())) {
+      out.println("Warning: the index has no offsets; both sides re-analyze");
+    }
+    out.println(String.format("%d queries, %d results each, %d passages", queries.size(),
+        numResults, passages));
+
+    // One untimed pass to warm up the JIT and the OS cache.
+    for (int i = 0; i < queries.size(); i++) {
+      searcher.getSnippets(queries.get(i), results.get(i), passages, false);
+      searcher.getSnippets(queries.get(i), results.get(i), passages, true);
+    }
+
+    long[] offsetsNanos = new long[runs * queries.size()];
+    long[] analysisNanos = new long[runs * queries.size()];
+    int cnt = 0;
+    for (int run = 0; run < runs; run++) {
+      for (int i = 0; i < queries.size(); i++) {
+        String q = queries.get(i);
+        TopDocs rs = results.get(i);
+        String[] a;
+        String[] b;
+        long start;
+        // Alternate the order, so neither side always gets the warmer caches.
+        if (cnt % 2 == 0) {
+          start = System.nanoTime();
+          a = searcher.getSnippets(q, rs, passages, false);
+          offsetsNanos[cnt] = System.nanoTime() - start;
+          start = System.nanoTime();
+          b = searcher.getSnippets(q, rs, passages, true);
+          analysisNanos[cnt] = System.nanoTime() - start;
+        } else {
+          start = System.nanoTime();
+          b = searcher.getSnippets(q, rs, passages, true);
+          analysisNanos[cnt] = System.nanoTime() - start;
+          start = System.nanoTime();
+          a = searcher.getSnippets(q, rs, passages, false);
+          offsetsNanos[cnt] = System.nanoTime() - start;
+        }
+        cnt++;
+
+        if (run == 0 && print) {
+          out.println("# " + q);
+          for (int j = 0; j < rs.scoreDocs.length; j++) {
+            out.println("  offsets:  " + a[j].replaceAll("[\\n\\r]+", " "));
+            out.println("  analysis: " + b[j].replaceAll("[\\n\\r]+", " "));
+          }
+        }
+      }
+    }
+
+    out.println(CompareSearchLatency.summarize("offsets", offsetsNanos));
+    out.println(CompareSearchLatency.summarize("analysis", analysisNanos));
+
+    searcher.close();
+    out.close();
+  }
+}
@@ -26,9 +26,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.lucene.document.Document;
 
-import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
 
 public class FetchWikipediaArticle {
   private static final String INDEX_OPTION = "index";
@@ -72,21 +70,21 @@ public class FetchWikipediaArticle {
 
     if (cmdline.hasOption(ID_OPTION)) {
       int id = Integer.parseInt(cmdline.getOptionValue(ID_OPTION));
-      Document doc = searcher.getArticle(id);
+      String text = searcher.getArticleText(id);
 
-      if (doc == null) {
+      if (text == null) {
         System.err.print("id " + id + " doesn't exist!\n");
       } else {
-        out.println(doc.getField(IndexField.TEXT.name).stringValue());
+        out.println(text);
       }
     } else {
       String title = cmdline.getOptionValue(TITLE_OPTION);
-      Document doc = searcher.getArticle(title);
+      String text = searcher.getArticleText(title);
 
-      if (doc == null) {
+      if (text == null) {
         System.err.print("article \"" + title+ "\" doesn't exist!\n");
       } else {
-        out.println(doc.getField(IndexField.TEXT.name).stringValue());
+        out.println(text);
       }
     }
 
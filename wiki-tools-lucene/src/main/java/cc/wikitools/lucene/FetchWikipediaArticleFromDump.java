@@ -0,0 +1,108 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiCleanBuilder;
+
+public class FetchWikipediaArticleFromDump {
+  private static final String INPUT_OPTION = "input";
+  private static final String DUMP_INDEX_OPTION = "dump_index";
+  private static final String ID_OPTION = "id";
+  private static final String TITLE_OPTION = "title";
+  private static final String RAW_OPTION = "raw";
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("bz2 Wikipedia multistream XML dump file").create(INPUT_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("multistream index of the dump").create(DUMP_INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("article id").create(ID_OPTION));
+    options.addOption(OptionBuilder.withArgName("string").hasArg()
+        .withDescription("article title").create(TITLE_OPTION));
+
+    options.addOption(new Option(RAW_OPTION, "print out raw XML instead of cleaned text"));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      System.exit(-1);
+    }
+
+    if (!(cmdline.hasOption(ID_OPTION) || cmdline.hasOption(TITLE_OPTION)) ||
+        !cmdline.hasOption(INPUT_OPTION) || !cmdline.hasOption(DUMP_INDEX_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(FetchWikipediaArticleFromDump.class.getName(), options);
+      System.exit(-1);
+    }
+
+    for (String option : new String[] { INPUT_OPTION, DUMP_INDEX_OPTION }) {
+      File file = new File(cmdline.getOptionValue(option));
+      if (!file.exists()) {
+        System.err.println("Error: " + file + " does not exist!");
+        System.exit(-1);
+      }
+    }
+
+    boolean byTitle = !cmdline.hasOption(ID_OPTION);
+    WikipediaRandomAccessDumpReader reader = new WikipediaRandomAccessDumpReader(
+        cmdline.getOptionValue(INPUT_OPTION), cmdline.getOptionValue(DUMP_INDEX_OPTION), byTitle);
+    PrintStream out = new PrintStream(System.out, true, "UTF-8");
+    WikiClean cleaner = new WikiCleanBuilder().withTitle(true).build();
+
+    String page;
+    if (byTitle) {
+      String title = cmdline.getOptionValue(TITLE_OPTION);
+      page = reader.getPage(title);
+
+      if (page == null) {
+        System.err.print("article \"" + title+ "\" doesn't exist!\n");
+      }
+    } else {
+      int id = Integer.parseInt(cmdline.getOptionValue(ID_OPTION));
+      page = reader.getPage(id);
+
+      if (page == null) {
+        System.err.print("id " + id + " doesn't exist!\n");
+      }
+    }
+
+    if (page != null) {
+      out.println(cmdline.hasOption(RAW_OPTION) ? page : cleaner.clean(page));
+    }
+
+    reader.close();
+    out.close();
+  }
+}
@@ -0,0 +1,514 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Writes a synthetic Wikipedia dump, for benchmarking without downloading a real one. The dump
+ * is in the <code>pages-articles-multistream</code> format: bz2 streams of 100 pages each, which
+ * can be read as an ordinary bz2 dump too, optionally with its
+ * <code>multistream-index.txt.bz2</code>. Pages look like real ones to the indexer: articles have
+ * an infobox, sections, links, references and categories, and there are redirects and pages in
+ * other namespaces. The same options and seed always give the same dump.
+ */
+public class GenerateWikipediaDump {
+  private static final Logger LOG = Logger.getLogger(GenerateWikipediaDump.class);
+
+  private static final int PAGES_PER_STREAM = 100;
+  private static final int VOCABULARY_SIZE = 50000;
+  private static final String[] NAMESPACES = {
+      "Wikipedia", "Portal", "File", "Template", "Category" };
+  private static final int[] NAMESPACE_IDS = { 4, 100, 6, 10, 14 };
+
+  private static final int DEFAULT_ARTICLES = 10000;
+  private static final int DEFAULT_MEAN_WORDS = 500;
+  private static final double DEFAULT_LENGTH_SIGMA = 1.0;
+  private static final double DEFAULT_REDIRECTS = 0.4;
+  private static final double DEFAULT_OTHER_NAMESPACES = 0.1;
+  private static final double DEFAULT_LINKS = 3.0;
+  private static final long DEFAULT_SEED = 1;
+
+  private static final String OUTPUT_OPTION = "output";
+  private static final String DUMP_INDEX_OPTION = "dump_index";
+  private static final String ARTICLES_OPTION = "articles";
+  private static final String MEAN_WORDS_OPTION = "mean_words";
+  private static final String LENGTH_SIGMA_OPTION = "length_sigma";
+  private static final String REDIRECTS_OPTION = "redirects";
+  private static final String NAMESPACES_OPTION = "namespaces";
+  private static final String LINKS_OPTION = "links";
+  private static final String SEED_OPTION = "seed";
+  private static final String THREADS_OPTION = "threads";
+
+  private final Random random;
+  private final String[] vocabulary = new String[VOCABULARY_SIZE];
+  private final String[] titles;
+
+  private double meanWords = DEFAULT_MEAN_WORDS;
+  private double lengthSigma = DEFAULT_LENGTH_SIGMA;
+  private double redirects = DEFAULT_REDIRECTS;
+  private double otherNamespaces = DEFAULT_OTHER_NAMESPACES;
+  private double links = DEFAULT_LINKS;
+
+  private int pages = 0;
+  private int articles = 0;
+
+  /**
+   * @param numArticles number of articles to write; redirects and pages in other namespaces come
+   *     on top of these
+   */
+  public GenerateWikipediaDump(int numArticles, long seed) {
+    Preconditions.checkArgument(numArticles > 0);
+    random = new Random(seed);
+    for (int i = 0; i < VOCABULARY_SIZE; i++) {
+      char[] word = new char[2 + random.nextInt(9)];
+      for (int j = 0; j < word.length; j++) {
+        word[j] = (char) ('a' + random.nextInt(26));
+      }
+      vocabulary[i] = new String(word);
+    }
+
+    // Articles link to each other and are the targets of redirects, so all titles are known up
+    // front. The id is only added when needed to keep titles unique.
+    titles = new String[numArticles];
+    Set<String> seen = Sets.newHashSet();
+    for (int i = 0; i < numArticles; i++) {
+      String title = capitalize(words(1 + random.nextInt(3)));
+      titles[i] = seen.add(title) ? title : title + " (" + i + ")";
+      seen.add(titles[i]);
+    }
+  }
+
+  /**
+   * Sets the mean number of words in an article. Lengths are log-normally distributed, so most
+   * articles are shorter than the mean and a few are much longer.
+   */
+  public void setMeanWords(double meanWords) {
+    Preconditions.checkArgument(meanWords > 0);
+    this.meanWords = meanWords;
+  }
+
+  /**
+   * Sets how widely article lengths vary: the standard deviation of their logarithm.
+   */
+  public void setLengthSigma(double lengthSigma) {
+    Preconditions.checkArgument(lengthSigma >= 0);
+    this.lengthSigma = lengthSigma;
+  }
+
+  /**
+   * Sets the fraction of pages that are redirects.
+   */
+  public void setRedirects(double redirects) {
+    this.redirects = redirects;
+  }
+
+  /**
+   * Sets the fraction of pages outside the article namespace.
+   */
+  public void setOtherNamespaces(double otherNamespaces) {
+    this.otherNamespaces = otherNamespaces;
+  }
+
+  /**
+   * Sets the number of links per 100 words of article text.
+   */
+  public void setLinks(double links) {
+    Preconditions.checkArgument(links >= 0);
+    this.links = links;
+  }
+
+  /**
+   * Writes the dump, and the multistream index if <code>index</code> isn't <code>null</code>.
+   * Pages are generated in order on the calling thread, and compressed in parallel.
+   */
+  public void write(OutputStream dump, OutputStream index, int threads) throws IOException {
+    Preconditions.checkArgument(redirects >= 0 && otherNamespaces >= 0
+        && redirects + otherNamespaces < 1, "redirect and namespace fractions must add up to < 1");
+    Preconditions.checkArgument(threads > 0);
+
+    CountingOutputStream out = new CountingOutputStream(dump);
+    Writer indexWriter = index == null ? null :
+        new OutputStreamWriter(new BZip2CompressorOutputStream(index), Charsets.UTF_8);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    // Streams being compressed, with the index entries of their pages, in dump order.
+    Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    Deque<List<String>> entries = new ArrayDeque<List<String>>();
+
+    try {
+      pending.add(executor.submit(compress("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" "
+          + "version=\"0.8\" xml:lang=\"en\">\n" + siteInfo())));
+      entries.add(Collections.<String>emptyList());
+
+      int id = 0;
+      long revision = 500000000L;
+      while (articles < titles.length) {
+        StringBuilder stream = new StringBuilder();
+        List<String> streamEntries = Lists.newArrayList();
+        while (streamEntries.size() < PAGES_PER_STREAM && articles < titles.length) {
+          // Ids and revisions increase with gaps, as deleted pages and other edits leave them.
+          id += 1 + random.nextInt(4);
+          revision += 1 + random.nextInt(1000);
+          streamEntries.add(id + ":" + page(stream, id, revision));
+          pages++;
+        }
+        pending.add(executor.submit(compress(stream.toString())));
+        entries.add(streamEntries);
+
+        while (pending.size() > 2 * threads) {
+          writeStream(out, pending.removeFirst(), entries.removeFirst(), indexWriter);
+        }
+      }
+      pending.add(executor.submit(compress("</mediawiki>\n")));
+      entries.add(Collections.<String>emptyList());
+      while (!pending.isEmpty()) {
+        writeStream(out, pending.removeFirst(), entries.removeFirst(), indexWriter);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (indexWriter != null) {
+      indexWriter.close();
+    }
+    out.flush();
+  }
+
+  public int getPageCount() {
+    return pages;
+  }
+
+  public int getArticleCount() {
+    return articles;
+  }
+
+  /**
+   * Writes a compressed stream, and index entries pointing at its start.
+   */
+  private static void writeStream(CountingOutputStream out, Future<byte[]> stream,
+      List<String> entries, Writer indexWriter) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = stream.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    if (indexWriter != null) {
+      for (String entry : entries) {
+        indexWriter.write(out.getCount() + ":" + entry + "\n");
+      }
+    }
+    out.write(bytes);
+  }
+
+  /**
+   * Returns a task that compresses text into a bz2 stream of its own.
+   */
+  private static Callable<byte[]> compress(final String text) {
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4);
+        BZip2CompressorOutputStream bz2 = new BZip2CompressorOutputStream(bytes);
+        bz2.write(text.getBytes(Charsets.UTF_8));
+        bz2.close();
+        return bytes.toByteArray();
+      }
+    };
+  }
+
+  private static String siteInfo() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("  <siteinfo>\n    <sitename>Wikipedia</sitename>\n")
+        .append("    <base>http://en.wikipedia.org/wiki/Main_Page</base>\n")
+        .append("    <generator>MediaWiki 1.22wmf5</generator>\n")
+        .append("    <case>first-letter</case>\n    <namespaces>\n")
+        .append("      <namespace key=\"0\" case=\"first-letter\" />\n");
+    for (int i = 0; i < NAMESPACES.length; i++) {
+      sb.append("      <namespace key=\"").append(NAMESPACE_IDS[i])
+          .append("\" case=\"first-letter\">").append(NAMESPACES[i]).append("</namespace>\n");
+    }
+    return sb.append("    </namespaces>\n  </siteinfo>\n").toString();
+  }
+
+  /**
+   * Appends a page, and returns its title.
+   */
+  private String page(StringBuilder sb, int id, long revision) {
+    double kind = random.nextDouble();
+    String title;
+    String redirect = null;
+    int ns = 0;
+    String text;
+    if (kind < redirects) {
+      redirect = randomTitle();
+      title = capitalize(words(1 + random.nextInt(3))) + " " + id;
+      text = "#REDIRECT [[" + redirect + "]]";
+    } else if (kind < redirects + otherNamespaces) {
+      int i = random.nextInt(NAMESPACES.length);
+      ns = NAMESPACE_IDS[i];
+      title = NAMESPACES[i] + ":" + capitalize(words(1 + random.nextInt(3))) + " " + id;
+      text = paragraph(words(10 + random.nextInt(100)));
+    } else {
+      title = titles[articles++];
+      text = article(title);
+    }
+
+    sb.append("  <page>\n    <title>").append(escape(title)).append("</title>\n")
+        .append("    <ns>").append(ns).append("</ns>\n")
+        .append("    <id>").append(id).append("</id>\n");
+    if (redirect != null) {
+      sb.append("    <redirect title=\"").append(escape(redirect)).append("\" />\n");
+    }
+    sb.append("    <revision>\n      <id>").append(revision).append("</id>\n")
+        .append("      <parentid>").append(revision - 1 - random.nextInt(100000)).append("</parentid>\n")
+        .append("      <timestamp>2013-0").append(1 + random.nextInt(9)).append("-1")
+        .append(random.nextInt(10)).append("T12:").append(10 + random.nextInt(50))
+        .append(":00Z</timestamp>\n")
+        .append("      <contributor>\n        <username>").append(capitalize(word()))
+        .append("</username>\n        <id>").append(random.nextInt(20000000))
+        .append("</id>\n      </contributor>\n")
+        .append("      <model>wikitext</model>\n      <format>text/x-wiki</format>\n")
+        .append("      <text xml:space=\"preserve\">").append(escape(text)).append("</text>\n")
+        .append("    </revision>\n  </page>\n");
+    return title;
+  }
+
+  /**
+   * Returns the wikitext of an article: an infobox, a lead paragraph, sections with links and
+   * references, and categories.
+   */
+  private String article(String title) {
+    // Log-normal, with the configured mean.
+    double mu = Math.log(meanWords) - lengthSigma * lengthSigma / 2;
+    int length = Math.max(10, (int) Math.exp(mu + lengthSigma * random.nextGaussian()));
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("{{Infobox ").append(word()).append('\n');
+    for (int i = 2 + random.nextInt(6); i > 0; i--) {
+      sb.append("| ").append(word()).append(" = ").append(words(1 + random.nextInt(4))).append('\n');
+    }
+    sb.append("}}\n");
+
+    sb.append("'''").append(title).append("''' ");
+    int lead = Math.min(length, 20 + random.nextInt(80));
+    sb.append(paragraph(words(lead))).append('\n');
+    length -= lead;
+
+    while (length > 0) {
+      sb.append("\n== ").append(capitalize(words(1 + random.nextInt(3)))).append(" ==\n");
+      int section = Math.min(length, 50 + random.nextInt(400));
+      sb.append(paragraph(words(section))).append('\n');
+      length -= section;
+    }
+
+    sb.append("\n== References ==\n{{Reflist}}\n\n");
+    for (int i = 1 + random.nextInt(4); i > 0; i--) {
+      sb.append("[[Category:").append(capitalize(words(1 + random.nextInt(3)))).append("]]\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Turns words into sentences, and sprinkles in links, emphasis and references.
+   */
+  private String paragraph(String words) {
+    StringBuilder sb = new StringBuilder();
+    boolean start = true;
+    for (String word : words.split(" ")) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      double x = random.nextDouble() * 100;
+      if (x < links) {
+        String target = randomTitle();
+        // Some links have their own label.
+        sb.append("[[").append(target);
+        if (random.nextInt(3) == 0) {
+          sb.append('|').append(word);
+        }
+        sb.append("]]");
+      } else if (x < links + 0.5) {
+        sb.append("''").append(word).append("''");
+      } else {
+        sb.append(start ? capitalize(word) : word);
+      }
+      start = false;
+
+      if (random.nextInt(15) == 0) {
+        sb.append('.');
+        if (random.nextInt(10) == 0) {
+          sb.append("<ref>{{cite web |url=http://www.example.org/").append(word())
+              .append(" |title=").append(capitalize(words(3))).append("}}</ref>");
+        }
+        start = true;
+      }
+    }
+    return sb.append('.').toString();
+  }
+
+  private String randomTitle() {
+    return titles[random.nextInt(titles.length)];
+  }
+
+  private String word() {
+    // Cubing skews draws towards the start of the vocabulary, so a few words are very common.
+    double x = random.nextDouble();
+    return vocabulary[(int) (x * x * x * VOCABULARY_SIZE)];
+  }
+
+  private String words(int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      sb.append(i == 0 ? "" : " ").append(word());
+    }
+    return sb.toString();
+  }
+
+  private static String capitalize(String s) {
+    return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+  }
+
+  private static String escape(String s) {
+    return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("bz2 dump file to write").create(OUTPUT_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("also write a multistream index (.txt.bz2)").create(DUMP_INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of articles (default: " + DEFAULT_ARTICLES + ")")
+        .create(ARTICLES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("mean words per article (default: " + DEFAULT_MEAN_WORDS + ")")
+        .create(MEAN_WORDS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("spread of article lengths, as the sigma of a log-normal (default: "
+            + DEFAULT_LENGTH_SIGMA + ")").create(LENGTH_SIGMA_OPTION));
+    options.addOption(OptionBuilder.withArgName("fraction").hasArg()
+        .withDescription("fraction of pages that are redirects (default: " + DEFAULT_REDIRECTS + ")")
+        .create(REDIRECTS_OPTION));
+    options.addOption(OptionBuilder.withArgName("fraction").hasArg()
+        .withDescription("fraction of pages in other namespaces (default: "
+            + DEFAULT_OTHER_NAMESPACES + ")").create(NAMESPACES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("links per 100 words (default: " + DEFAULT_LINKS + ")")
+        .create(LINKS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("random seed (default: " + DEFAULT_SEED + ")").create(SEED_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of compression threads (default: number of cores)")
+        .create(THREADS_OPTION));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      System.exit(-1);
+    }
+
+    if (!cmdline.hasOption(OUTPUT_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(GenerateWikipediaDump.class.getName(), options);
+      System.exit(-1);
+    }
+
+    int articles = cmdline.hasOption(ARTICLES_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(ARTICLES_OPTION)) : DEFAULT_ARTICLES;
+    long seed = cmdline.hasOption(SEED_OPTION) ?
+        Long.parseLong(cmdline.getOptionValue(SEED_OPTION)) : DEFAULT_SEED;
+    int threads = cmdline.hasOption(THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION))
+        : Runtime.getRuntime().availableProcessors();
+
+    GenerateWikipediaDump generator = new GenerateWikipediaDump(articles, seed);
+    if (cmdline.hasOption(MEAN_WORDS_OPTION)) {
+      generator.setMeanWords(Double.parseDouble(cmdline.getOptionValue(MEAN_WORDS_OPTION)));
+    }
+    if (cmdline.hasOption(LENGTH_SIGMA_OPTION)) {
+      generator.setLengthSigma(Double.parseDouble(cmdline.getOptionValue(LENGTH_SIGMA_OPTION)));
+    }
+    if (cmdline.hasOption(REDIRECTS_OPTION)) {
+      generator.setRedirects(Double.parseDouble(cmdline.getOptionValue(REDIRECTS_OPTION)));
+    }
+    if (cmdline.hasOption(NAMESPACES_OPTION)) {
+      generator.setOtherNamespaces(Double.parseDouble(cmdline.getOptionValue(NAMESPACES_OPTION)));
+    }
+    if (cmdline.hasOption(LINKS_OPTION)) {
+      generator.setLinks(Double.parseDouble(cmdline.getOptionValue(LINKS_OPTION)));
+    }
+
+    long startTime = System.currentTimeMillis();
+    OutputStream dump = new BufferedOutputStream(
+        new FileOutputStream(cmdline.getOptionValue(OUTPUT_OPTION)));
+    OutputStream index = cmdline.hasOption(DUMP_INDEX_OPTION) ? new BufferedOutputStream(
+        new FileOutputStream(cmdline.getOptionValue(DUMP_INDEX_OPTION))) : null;
+    try {
+      generator.write(dump, index, threads);
+    } finally {
+      dump.close();
+      if (index != null) {
+        index.close();
+      }
+    }
+    LOG.info("Wrote " + generator.getPageCount() + " pages (" + generator.getArticleCount()
+        + " articles) in " + (System.currentTimeMillis() - startTime) + "ms");
+  }
+}
@@ -16,11 +16,24 @@
 
 package cc.wikitools.lucene;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -33,21 +46,29 @@ import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
-import org.apache.lucene.document.IntField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FieldInfo.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
-import org.wikiclean.WikiClean;
 import org.wikiclean.WikiCleanBuilder;
 import org.wikiclean.WikipediaBz2DumpInputStream;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class IndexWikipediaDump {
   private static final Logger LOG = Logger.getLogger(IndexWikipediaDump.class);
 
@@ -65,7 +86,9 @@ public class IndexWikipediaDump {
   public static enum IndexField {
     ID("id"),
     TITLE("title"),
-    TEXT("text");
+    TEXT("text"),
+    REVISION("revision"),
+    TITLE_EXACT("title_exact");
 
     public final String name;
 
@@ -74,13 +97,142 @@ public class IndexWikipediaDump {
     }
   };
 
+  /**
+   * Returns whether a page is an article that should be indexed.
+   */
+  public static boolean isArticle(String title, String page) {
+    return isArticleTitle(title) && getRedirectTarget(page) == null;
+  }
+
+  /**
+   * Returns whether a title is in the article namespace.
+   */
+  public static boolean isArticleTitle(String title) {
+    // These are heuristic specifically for filtering out non-articles in enwiki-20120104.
+    return !(title.startsWith("Wikipedia:") || title.startsWith("Portal:") || title.startsWith("File:"));
+  }
+
+  /**
+   * Returns the title a redirect page points to, or <code>null</code> if the page isn't a
+   * redirect. Returns an empty string for a redirect without a recognizable target.
+   */
+  public static String getRedirectTarget(String page) {
+    // A redirect is a page whose text starts with #REDIRECT, in any case, so there's no need to
+    // scan all of the text.
+    int text = page.indexOf("<text");
+    int start = text == -1 ? -1 : page.indexOf('>', text) + 1;
+    if (start <= 0) {
+      return null;
+    }
+    while (start < page.length() && Character.isWhitespace(page.charAt(start))) {
+      start++;
+    }
+    if (!page.regionMatches(true, start, REDIRECT, 0, REDIRECT.length())) {
+      return null;
+    }
+
+    // Newer dumps have the normalized target in an element before the text.
+    int attr = page.lastIndexOf(REDIRECT_TITLE, text);
+    if (attr != -1) {
+      int end = page.indexOf('"', attr + REDIRECT_TITLE.length());
+      if (end != -1) {
+        return unescapeXml(page.substring(attr + REDIRECT_TITLE.length(), end));
+      }
+    }
+
+    // Otherwise, take the target from the link: [[Target#Section|label]].
+    int open = page.indexOf("[[", start);
+    int close = open == -1 ? -1 : page.indexOf("]]", open);
+    if (close == -1) {
+      return "";
+    }
+    String target = unescapeXml(page.substring(open + 2, close));
+    for (char c : new char[] { '#', '|' }) {
+      if (target.indexOf(c) != -1) {
+        target = target.substring(0, target.indexOf(c));
+      }
+    }
+    target = target.replace('_', ' ').trim();
+    if (target.startsWith(":")) {
+      target = target.substring(1).trim();
+    }
+    if (target.isEmpty()) {
+      return "";
+    }
+    // Titles always start with a capital letter.
+    return Character.toUpperCase(target.charAt(0)) + target.substring(1);
+  }
+
+  private static final String REDIRECT = "#REDIRECT";
+  private static final String REDIRECT_TITLE = "<redirect title=\"";
+
+  private static String unescapeXml(String s) {
+    if (s.indexOf('&') == -1) {
+      return s;
+    }
+    return s.replace("&quot;", "\"").replace("&#039;", "'").replace("&#39;", "'")
+        .replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+  }
+
+  /**
+   * Returns the id of the revision a page holds, or -1 if it doesn't have one.
+   */
+  public static long getRevision(String page) {
+    int start = page.indexOf("<revision>");
+    if (start == -1) {
+      return -1;
+    }
+    start = page.indexOf("<id>", start);
+    int end = start == -1 ? -1 : page.indexOf("</id>", start);
+    if (end == -1) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(page.substring(start + "<id>".length(), end).trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the term that identifies the article with the given id, for updates and deletes.
+   */
+  public static Term idTerm(int id) {
+    BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
+    NumericUtils.intToPrefixCoded(id, 0, bytes);
+    return new Term(IndexField.ID.name, bytes);
+  }
+
+  public static final String SHARD_PREFIX = "shard-";
+
   private static final int DEFAULT_NUM_THREADS = 4;
+  private static final double DEFAULT_REFRESH_SECS = 5.0;
+  private static final double DEFAULT_STATS_INTERVAL_SECS = 10.0;
+
+  // Domain of the MBeans that report on indexing.
+  public static final String JMX_DOMAIN = "cc.wikitools.lucene";
 
   private static final String INPUT_OPTION = "input";
   private static final String INDEX_OPTION = "index";
   private static final String MAX_OPTION = "maxdocs";
   private static final String OPTIMIZE_OPTION = "optimize";
+  private static final String SHARDS_OPTION = "shards";
+  private static final String MERGE_OPTION = "merge";
   private static final String THREADS_OPTION = "threads";
+  private static final String CLEAN_THREADS_OPTION = "clean_threads";
+  private static final String FILTER_THREADS_OPTION = "filter_threads";
+  private static final String QUEUE_SIZE_OPTION = "queue_size";
+  private static final String BATCH_SIZE_OPTION = "batch_size";
+  private static final String MULTISTREAM_OPTION = "multistream";
+  private static final String READER_THREADS_OPTION = "reader_threads";
+  private static final String DUMP_INDEX_OPTION = "dump_index";
+  private static final String IDS_OPTION = "ids";
+  private static final String TITLES_OPTION = "titles";
+  private static final String UPDATE_OPTION = "update";
+  private static final String SERVE_OPTION = "serve";
+  private static final String REFRESH_OPTION = "refresh";
+  private static final String OFFSETS_OPTION = "offsets";
+  private static final String STATS_INTERVAL_OPTION = "stats_interval";
 
   @SuppressWarnings("static-access")
   public static void main(String[] args) throws Exception {
@@ -93,8 +245,50 @@ public class IndexWikipediaDump {
         .withDescription("maximum number of documents to index").create(MAX_OPTION));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of indexing threads").create(THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of cleaning threads (default: same as indexing threads)")
+        .create(CLEAN_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of filtering threads (default: 1)").create(FILTER_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("capacity of each pipeline queue (default: "
+            + IndexingPipeline.DEFAULT_QUEUE_SIZE + ")").create(QUEUE_SIZE_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of documents per addDocuments call (default: "
+            + IndexingPipeline.DEFAULT_BATCH_SIZE + ")").create(BATCH_SIZE_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of decompression threads for -multistream input "
+            + "(default: same as indexing threads)").create(READER_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("multistream index of the dump, for -ids or -titles").create(DUMP_INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("file of article ids (one per line) to reindex into an existing index")
+        .create(IDS_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("file of article titles (one per line) to reindex into an existing index")
+        .create(TITLES_OPTION));
+
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("build this many shards in parallel, one indexing thread each")
+        .create(SHARDS_OPTION));
+    options.addOption(OptionBuilder.withArgName("port").hasArg()
+        .withDescription("serve searches over the index while it is being built (see "
+            + WikipediaSearchServer.class.getSimpleName() + ")").create(SERVE_OPTION));
+    options.addOption(OptionBuilder.withArgName("secs").hasArg()
+        .withDescription("how often -serve picks up newly indexed articles (default: "
+            + DEFAULT_REFRESH_SECS + ")").create(REFRESH_OPTION));
+    options.addOption(OptionBuilder.withArgName("secs").hasArg()
+        .withDescription("how often to log pipeline and writer stats; 0 to disable (default: "
+            + DEFAULT_STATS_INTERVAL_SECS + ")").create(STATS_INTERVAL_OPTION));
 
     options.addOption(new Option(OPTIMIZE_OPTION, "merge indexes into a single segment"));
+    options.addOption(new Option(MERGE_OPTION, "combine shards into a single index when done"));
+    options.addOption(new Option(UPDATE_OPTION,
+        "update an existing index: reindex new and changed articles, delete removed ones"));
+    options.addOption(new Option(MULTISTREAM_OPTION,
+        "input is a multistream dump; decompress its streams in parallel"));
+    options.addOption(new Option(OFFSETS_OPTION,
+        "record term offsets in article text, for fast snippets"));
 
     CommandLine cmdline = null;
     CommandLineParser parser = new GnuParser();
@@ -105,7 +299,12 @@ public class IndexWikipediaDump {
       System.exit(-1);
     }
 
-    if (!cmdline.hasOption(INPUT_OPTION) || !cmdline.hasOption(INDEX_OPTION)) {
+    boolean partial = cmdline.hasOption(IDS_OPTION) || cmdline.hasOption(TITLES_OPTION);
+    boolean update = cmdline.hasOption(UPDATE_OPTION);
+    if (!cmdline.hasOption(INPUT_OPTION) || !cmdline.hasOption(INDEX_OPTION)
+        || (partial && !cmdline.hasOption(DUMP_INDEX_OPTION))
+        || ((partial || update) && cmdline.hasOption(SHARDS_OPTION)) || (partial && update)
+        || (cmdline.hasOption(SERVE_OPTION) && cmdline.hasOption(SHARDS_OPTION))) {
       HelpFormatter formatter = new HelpFormatter();
       formatter.printHelp(IndexWikipediaDump.class.getCanonicalName(), options);
       System.exit(-1);
@@ -114,98 +313,447 @@ public class IndexWikipediaDump {
     String indexPath = cmdline.getOptionValue(INDEX_OPTION);
     int maxdocs = cmdline.hasOption(MAX_OPTION) ?
         Integer.parseInt(cmdline.getOptionValue(MAX_OPTION)) : Integer.MAX_VALUE;
-    int threads = cmdline.hasOption(THREADS_OPTION) ?
+    int shards = cmdline.hasOption(SHARDS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(SHARDS_OPTION)) : 0;
+    // A sharded build has exactly one indexing thread per shard.
+    int threads = shards > 0 ? shards : cmdline.hasOption(THREADS_OPTION) ?
         Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION)) : DEFAULT_NUM_THREADS;
+    int cleanThreads = cmdline.hasOption(CLEAN_THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(CLEAN_THREADS_OPTION)) : threads;
+    int filterThreads = cmdline.hasOption(FILTER_THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(FILTER_THREADS_OPTION)) : 1;
+    int queueSize = cmdline.hasOption(QUEUE_SIZE_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(QUEUE_SIZE_OPTION)) : IndexingPipeline.DEFAULT_QUEUE_SIZE;
+    int batchSize = cmdline.hasOption(BATCH_SIZE_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(BATCH_SIZE_OPTION)) : IndexingPipeline.DEFAULT_BATCH_SIZE;
+    int readerThreads = cmdline.hasOption(READER_THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(READER_THREADS_OPTION)) : threads;
+    double statsSecs = cmdline.hasOption(STATS_INTERVAL_OPTION) ?
+        Double.parseDouble(cmdline.getOptionValue(STATS_INTERVAL_OPTION)) : DEFAULT_STATS_INTERVAL_SECS;
 
     long startTime = System.currentTimeMillis();
 
     String path = cmdline.getOptionValue(INPUT_OPTION);
-    PrintStream out = new PrintStream(System.out, true, "UTF-8");
-    WikiClean cleaner = new WikiCleanBuilder().withTitle(true).build();
+    WikiCleanBuilder cleanerBuilder = new WikiCleanBuilder().withTitle(true);
 
-    Directory dir = FSDirectory.open(new File(indexPath));
-    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, ANALYZER);
-    config.setOpenMode(OpenMode.CREATE);
+    File indexDir = new File(indexPath);
+    if ((partial || update) && getShards(indexDir).length > 0) {
+      System.err.println("Error: " + indexPath + " is sharded; merge it before reindexing articles");
+      System.exit(-1);
+    }
 
-    IndexWriter writer = new IndexWriter(dir, config);
-    LOG.info("Creating index at " + indexPath);
-    LOG.info("Indexing with " + threads + " threads");
+    Directory dir = FSDirectory.open(indexDir);
+    // Redirects are only complete when the whole dump is read.
+    RedirectTable.Builder redirects = partial ? null : new RedirectTable.Builder();
+    IndexedRevisions revisions = null;
+    if (update) {
+      if (DirectoryReader.indexExists(dir)) {
+        DirectoryReader reader = DirectoryReader.open(dir);
+        revisions = IndexedRevisions.load(reader);
+        reader.close();
+      } else {
+        revisions = IndexedRevisions.empty();
+      }
+      LOG.info("Found " + revisions.size() + " articles in existing index");
+    }
 
+    List<Directory> shardDirs = Lists.newArrayList();
+    List<IndexWriter> writers = Lists.newArrayList();
+    IndexWriterStats writerStats = new IndexWriterStats();
+    deleteShards(indexDir);
+    if (shards > 0) {
+      for (int i = 0; i < shards; i++) {
+        Directory shardDir = FSDirectory.open(getShard(indexDir, i));
+        shardDirs.add(shardDir);
+        writers.add(openWriter(shardDir, OpenMode.CREATE, writerStats));
+      }
+      LOG.info("Creating " + shards + " shards at " + indexPath);
+    } else {
+      // Partial reindexes and updates replace articles in the existing index instead of
+      // starting over.
+      boolean append = partial || update;
+      writers.add(openWriter(dir, append ? OpenMode.CREATE_OR_APPEND : OpenMode.CREATE, writerStats));
+      LOG.info((append ? "Updating" : "Creating") + " index at " + indexPath);
+    }
+    LOG.info("Indexing with " + threads + " threads (" + cleanThreads + " cleaning, "
+        + filterThreads + " filtering)");
+
+    Closeable server = null;
+    Closeable statsLogger = null;
+    List<ObjectName> mbeans = Lists.newArrayList();
+    boolean failed = false;
     try {
-      WikipediaBz2DumpInputStream stream = new WikipediaBz2DumpInputStream(path);
+      if (cmdline.hasOption(SERVE_OPTION)) {
+        double refreshSecs = cmdline.hasOption(REFRESH_OPTION) ?
+            Double.parseDouble(cmdline.getOptionValue(REFRESH_OPTION)) : DEFAULT_REFRESH_SECS;
+        server = serveWhileIndexing(writers.get(0),
+            Integer.parseInt(cmdline.getOptionValue(SERVE_OPTION)), refreshSecs);
+      }
 
-      ExecutorService executor = Executors.newFixedThreadPool(threads);
-      int cnt = 0;
-      String page;
-      while ((page = stream.readNext()) != null) {
-        String title = cleaner.getTitle(page);
+      final IndexingPipeline pipeline = new IndexingPipeline(writers, cleanerBuilder, maxdocs);
+      pipeline.setQueueSize(queueSize);
+      pipeline.setFilterThreads(filterThreads);
+      pipeline.setCleanThreads(cleanThreads);
+      pipeline.setIndexThreads(threads);
+      pipeline.setBatchSize(batchSize);
+      pipeline.setUpdateExisting(partial);
+      pipeline.setOffsets(cmdline.hasOption(OFFSETS_OPTION));
+      if (update) {
+        pipeline.setRevisions(revisions);
+      }
+      if (redirects != null) {
+        pipeline.setRedirects(redirects);
+      }
+      pipeline.start();
 
-        // These are heuristic specifically for filtering out non-articles in enwiki-20120104.
-        if (title.startsWith("Wikipedia:") || title.startsWith("Portal:") || title.startsWith("File:")) {
-          continue;
-        }
+      mbeans.add(registerMBean(pipeline, IndexingPipeline.class.getSimpleName()));
+      mbeans.add(registerMBean(writerStats, IndexWriterStats.class.getSimpleName()));
+      if (statsSecs > 0) {
+        statsLogger = logStats(pipeline, writerStats, statsSecs);
+      }
 
-        if (page.contains("#REDIRECT") || page.contains("#redirect") || page.contains("#Redirect")) {
-          continue;
+      if (partial) {
+        WikipediaRandomAccessDumpReader reader = new WikipediaRandomAccessDumpReader(path,
+            cmdline.getOptionValue(DUMP_INDEX_OPTION), cmdline.hasOption(TITLES_OPTION));
+        List<String> pages;
+        if (cmdline.hasOption(IDS_OPTION)) {
+          Set<Integer> ids = Sets.newHashSet();
+          for (String line : Files.readLines(new File(cmdline.getOptionValue(IDS_OPTION)), Charsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+              ids.add(Integer.parseInt(line.trim()));
+            }
+          }
+          pages = reader.getPages(ids);
+        } else {
+          Set<String> titles = Sets.newHashSet();
+          for (String line : Files.readLines(new File(cmdline.getOptionValue(TITLES_OPTION)), Charsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+              titles.add(line.trim());
+            }
+          }
+          pages = reader.getPagesByTitle(titles);
         }
+        reader.close();
 
-        Runnable worker = new AddDocumentRunnable(writer, cleaner, page);
-        executor.execute(worker);
-
-        cnt++;
-        if (cnt % 10000 == 0) {
-          LOG.info(cnt + " articles added");
+        LOG.info("Found " + pages.size() + " pages to reindex");
+        for (String page : pages) {
+          if (!pipeline.put(page)) {
+            break;
+          }
         }
-        if (cnt >= maxdocs) {
-          break;
+      } else if (cmdline.hasOption(MULTISTREAM_OPTION)) {
+        LOG.info("Decompressing with " + readerThreads + " threads");
+        WikipediaMultistreamDumpReader reader = new WikipediaMultistreamDumpReader(path, readerThreads);
+        reader.readAll(new WikipediaMultistreamDumpReader.PageHandler() {
+          @Override
+          public boolean handle(String page) throws IOException, InterruptedException {
+            return pipeline.put(page);
+          }
+        });
+      } else {
+        WikipediaBz2DumpInputStream stream = new WikipediaBz2DumpInputStream(path);
+        String page;
+        while ((page = stream.readNext()) != null) {
+          if (!pipeline.put(page)) {
+            break;
+          }
         }
       }
 
-      executor.shutdown();
-      // Wait until all threads are finish
-      while (!executor.isTerminated()) {}
+      // Blocks until all stages have drained.
+      pipeline.finish();
+      if (statsLogger != null) {
+        statsLogger.close();
+        statsLogger = null;
+      }
 
-      LOG.info("Total of " + cnt + " articles indexed.");
+      LOG.info("Total of " + pipeline.getIndexedCount() + " articles indexed.");
+      if (pipeline.getDroppedCount() > 0) {
+        LOG.warn(pipeline.getDroppedCount() + " articles dropped after indexing errors");
+      }
+      if (pipeline.getRedirectedCount() > 0) {
+        LOG.info(pipeline.getRedirectedCount() + " articles deleted after becoming redirects");
+      }
+      if (update) {
+        LOG.info(pipeline.getUnchangedCount() + " articles unchanged");
+        if (pipeline.isFull()) {
+          // Articles past maxdocs were never compared, so they can't be told apart from removed ones.
+          LOG.info("Stopped at maxdocs; not deleting removed articles");
+        } else {
+          int[] removed = revisions.getUnseenIds();
+          Term[] terms = new Term[removed.length];
+          for (int i = 0; i < removed.length; i++) {
+            terms[i] = idTerm(removed[i]);
+          }
+          writers.get(0).deleteDocuments(terms);
+          LOG.info(removed.length + " articles deleted");
+        }
+      }
+      pipeline.logStats();
+
+      if (server != null) {
+        server.close();
+        server = null;
+      }
 
-      if (cmdline.hasOption(OPTIMIZE_OPTION)) {
+      boolean optimize = cmdline.hasOption(OPTIMIZE_OPTION);
+      if (optimize) {
         LOG.info("Merging segments...");
-        writer.forceMerge(1);
-        LOG.info("Done!");
       }
+      closeWriters(writers, optimize);
+
+      if (shards > 0 && cmdline.hasOption(MERGE_OPTION)) {
+        LOG.info("Combining " + shards + " shards...");
+        IndexWriter writer = openWriter(dir, OpenMode.CREATE);
+        writer.addIndexes(shardDirs.toArray(new Directory[shards]));
+        if (optimize) {
+          writer.forceMerge(1);
+        }
+        writer.close();
 
+        for (Directory shardDir : shardDirs) {
+          shardDir.close();
+        }
+        shardDirs.clear();
+        deleteShards(indexDir);
+      }
+
+      if (redirects != null) {
+        LOG.info("Resolving redirects...");
+        // Resolve against the new articles only, not through the previous redirect table.
+        if (dir.fileExists(RedirectTable.FILE_NAME)) {
+          dir.deleteFile(RedirectTable.FILE_NAME);
+        }
+        WikipediaSearcher searcher = new WikipediaSearcher(indexDir);
+        redirects.write(searcher, dir);
+        searcher.close();
+      }
+      LOG.info("Done!");
+
+      long gcCount = 0;
+      long gcTime = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount += Math.max(0, gc.getCollectionCount());
+        gcTime += Math.max(0, gc.getCollectionTime());
+      }
+      LOG.info("Garbage collection: " + gcCount + " collections, " + gcTime + "ms");
       LOG.info("Total elapsed time: " + (System.currentTimeMillis() - startTime) + "ms");
     } catch (Exception e) {
       e.printStackTrace();
+      failed = true;
     } finally {
-      writer.close();
+      if (server != null) {
+        server.close();
+      }
+      if (statsLogger != null) {
+        statsLogger.close();
+      }
+      for (ObjectName mbean : mbeans) {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean);
+      }
+      if (failed) {
+        // Closing would commit whatever was indexed before the failure.
+        LOG.error("Indexing failed; rolling back to the last commit");
+        rollbackWriters(writers);
+      } else {
+        for (IndexWriter writer : writers) {
+          writer.close();
+        }
+      }
+      for (Directory shardDir : shardDirs) {
+        shardDir.close();
+      }
+      if (redirects != null) {
+        redirects.close();
+      }
       dir.close();
-      out.close();
     }
+
+    if (failed) {
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Registers an MBean with the platform MBean server, where it can be watched with JConsole or
+   * any other JMX client while indexing runs.
+   */
+  private static ObjectName registerMBean(Object mbean, String type) throws JMException {
+    ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + type);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+    return name;
+  }
+
+  /**
+   * Logs the counters of the pipeline and the writers every <code>secs</code> seconds, as a line
+   * of <code>key=value</code> pairs. Closing the result logs them one last time and stops.
+   */
+  private static Closeable logStats(final IndexingPipeline pipeline, final IndexWriterStats writerStats,
+      double secs) {
+    final long start = System.nanoTime();
+    final Runnable log = new Runnable() {
+      @Override
+      public void run() {
+        LOG.info(String.format("stats elapsed_s=%.1f %s %s", (System.nanoTime() - start) / 1e9,
+            pipeline.format(), writerStats.format()));
+      }
+    };
+
+    final ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("stats-log").setDaemon(true).build());
+    long millis = Math.max(1, (long) (secs * 1000));
+    logger.scheduleAtFixedRate(log, millis, millis, TimeUnit.MILLISECONDS);
+
+    return new Closeable() {
+      @Override
+      public void close() {
+        logger.shutdownNow();
+        log.run();
+      }
+    };
+  }
+
+  /**
+   * Serves searches over an index while it is being written, through a near-real-time reader
+   * that is refreshed every <code>refreshSecs</code> seconds. Closing the result stops serving.
+   */
+  private static Closeable serveWhileIndexing(IndexWriter writer, int port, double refreshSecs)
+      throws IOException {
+    final SearcherManager manager = new SearcherManager(writer, true, null);
+    final WikipediaSearcher searcher = new WikipediaSearcher(manager);
+    final WikipediaSearchServer server = new WikipediaSearchServer(searcher, port, 2);
+
+    final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("nrt-refresh").setDaemon(true).build());
+    long refreshMillis = Math.max(1, (long) (refreshSecs * 1000));
+    refresher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          manager.maybeRefresh();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+
+    server.start();
+    LOG.info("Serving the index on localhost:" + server.getPort() + " while indexing, refreshing every "
+        + refreshSecs + "s");
+
+    return new Closeable() {
+      @Override
+      public void close() throws IOException {
+        server.stop();
+        refresher.shutdownNow();
+        searcher.close();
+        manager.close();
+      }
+    };
+  }
+
+  /**
+   * Opens a writer configured the way this tool indexes, with its analyzer and codec.
+   */
+  public static IndexWriter openWriter(Directory dir, OpenMode mode) throws IOException {
+    return openWriter(dir, mode, null);
+  }
+
+  /**
+   * Opens a writer configured the way this tool indexes, whose flushes and merges are recorded
+   * in <code>stats</code>, if not <code>null</code>.
+   */
+  public static IndexWriter openWriter(Directory dir, OpenMode mode, IndexWriterStats stats)
+      throws IOException {
+    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, ANALYZER);
+    config.setOpenMode(mode);
+    config.setCodec(new WikipediaCodec());
+    if (stats != null) {
+      stats.configure(config);
+    }
+    IndexWriter writer = new IndexWriter(dir, config);
+    if (stats != null) {
+      stats.add(writer);
+    }
+    return writer;
   }
-  
-  private static class AddDocumentRunnable implements Runnable {
-    private final IndexWriter writer;
-    private final WikiClean cleaner;
-    private final String page;
 
-    AddDocumentRunnable(IndexWriter writer, WikiClean cleaner, String page) {
-      this.writer = writer;
-      this.cleaner = cleaner;
-      this.page = page;
+  /**
+   * Closes the writers in parallel, optionally merging each one down to a single segment first.
+   */
+  private static void closeWriters(List<IndexWriter> writers, final boolean optimize)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(writers.size());
+    List<Future<Void>> results = Lists.newArrayList();
+    for (final IndexWriter writer : writers) {
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          if (optimize) {
+            writer.forceMerge(1);
+          }
+          writer.close();
+          return null;
+        }
+      }));
     }
+    executor.shutdown();
 
-    @Override
-    public void run() {
-      Document doc = new Document();
-      doc.add(new IntField(IndexField.ID.name, Integer.parseInt(cleaner.getId(page)), Field.Store.YES));
-      doc.add(new Field(IndexField.TEXT.name, cleaner.clean(page), TEXT_OPTIONS));
-      doc.add(new Field(IndexField.TITLE.name, cleaner.getTitle(page), TEXT_OPTIONS));
+    for (Future<Void> result : results) {
+      result.get();
+    }
+  }
 
+  /**
+   * Discards everything the writers have indexed since their last commit, leaving an existing
+   * index as it was.
+   */
+  static void rollbackWriters(List<IndexWriter> writers) throws IOException {
+    for (IndexWriter writer : writers) {
       try {
-        writer.addDocument(doc);
-      } catch (IOException e) {
-        e.printStackTrace();
+        writer.rollback();
+      } catch (AlreadyClosedException e) {
+        // Already closed, so there is nothing left to roll back.
       }
     }
-  } 
+  }
+
+  public static String getShardName(int shard) {
+    return String.format("%s%03d", SHARD_PREFIX, shard);
+  }
+
+  static File getShard(File index, int shard) {
+    return new File(index, getShardName(shard));
+  }
+
+  /**
+   * Returns the shard directories of a sharded index in shard order, or an empty array if the
+   * index isn't sharded.
+   */
+  static File[] getShards(File index) {
+    File[] shards = index.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isDirectory() && file.getName().startsWith(SHARD_PREFIX);
+      }
+    });
+    if (shards == null) {
+      return new File[0];
+    }
+    Arrays.sort(shards);
+    return shards;
+  }
+
+  private static void deleteShards(File index) throws IOException {
+    for (File shard : getShards(index)) {
+      for (File file : shard.listFiles()) {
+        if (!file.delete()) {
+          throw new IOException("Unable to delete " + file);
+        }
+      }
+      if (!shard.delete()) {
+        throw new IOException("Unable to delete " + shard);
+      }
+    }
+  }
 }
@@ -0,0 +1,176 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.InfoStream;
+
+/**
+ * Counts and times the flushes and merges of one or more {@link IndexWriter}s, and reports the
+ * size of their RAM buffers. Writers are instrumented through their config (see
+ * {@link #configure(IndexWriterConfig)}): merges are timed by the merge scheduler, and flushes
+ * by the writer's {@link InfoStream}, which is the only place Lucene says when a segment flush
+ * starts and ends. Flushes run on the threads that add documents, so their time is also part
+ * of the index stage of an {@link IndexingPipeline}.
+ */
+public class IndexWriterStats implements IndexWriterStatsMBean {
+  // Messages that bracket the flush of a segment, from the same thread.
+  private static final String FLUSH_COMPONENT = "DWPT";
+  private static final String FLUSH_START = "flush postings as segment ";
+  private static final String FLUSH_END = "flushed: segment=";
+
+  private final List<IndexWriter> writers = new CopyOnWriteArrayList<IndexWriter>();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong flushNanos = new AtomicLong();
+  private final AtomicLong merges = new AtomicLong();
+  private final AtomicLong mergeNanos = new AtomicLong();
+  private final AtomicLong mergedDocs = new AtomicLong();
+  private final AtomicInteger runningMerges = new AtomicInteger();
+
+  /**
+   * Sets up a config so that the writer opened with it reports to this object. The writer must
+   * then be passed to {@link #add(IndexWriter)}.
+   */
+  public void configure(IndexWriterConfig config) {
+    config.setMergeScheduler(new TimedMergeScheduler());
+    config.setInfoStream(new FlushInfoStream());
+  }
+
+  public void add(IndexWriter writer) {
+    writers.add(writer);
+  }
+
+  @Override
+  public long getRamBufferBytes() {
+    long bytes = 0;
+    for (IndexWriter writer : writers) {
+      try {
+        bytes += writer.ramSizeInBytes();
+      } catch (AlreadyClosedException e) {
+        // Nothing buffered.
+      }
+    }
+    return bytes;
+  }
+
+  @Override
+  public int getRamBufferDocs() {
+    int docs = 0;
+    for (IndexWriter writer : writers) {
+      try {
+        docs += writer.numRamDocs();
+      } catch (AlreadyClosedException e) {
+        // Nothing buffered.
+      }
+    }
+    return docs;
+  }
+
+  @Override
+  public long getFlushCount() {
+    return flushes.get();
+  }
+
+  @Override
+  public long getFlushMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(flushNanos.get());
+  }
+
+  @Override
+  public long getMergeCount() {
+    return merges.get();
+  }
+
+  @Override
+  public long getMergeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(mergeNanos.get());
+  }
+
+  @Override
+  public long getMergedDocs() {
+    return mergedDocs.get();
+  }
+
+  @Override
+  public int getRunningMerges() {
+    return runningMerges.get();
+  }
+
+  /**
+   * Returns the current values as space-separated <code>key=value</code> pairs, for logging.
+   */
+  public String format() {
+    return String.format("ram_mb=%.1f ram_docs=%d flushes=%d flush_ms=%d merges=%d merge_ms=%d"
+        + " merged_docs=%d merging=%d", getRamBufferBytes() / 1024.0 / 1024.0, getRamBufferDocs(),
+        getFlushCount(), getFlushMillis(), getMergeCount(), getMergeMillis(), getMergedDocs(),
+        getRunningMerges());
+  }
+
+  private class TimedMergeScheduler extends ConcurrentMergeScheduler {
+    @Override
+    protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+      runningMerges.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        super.doMerge(merge);
+        mergedDocs.addAndGet(merge.totalDocCount);
+      } finally {
+        mergeNanos.addAndGet(System.nanoTime() - start);
+        merges.incrementAndGet();
+        runningMerges.decrementAndGet();
+      }
+    }
+  }
+
+  private class FlushInfoStream extends InfoStream {
+    private final ThreadLocal<Long> start = new ThreadLocal<Long>();
+
+    @Override
+    public boolean isEnabled(String component) {
+      // Other components log on every merge and commit, with expensive messages.
+      return FLUSH_COMPONENT.equals(component);
+    }
+
+    @Override
+    public void message(String component, String message) {
+      if (message.startsWith(FLUSH_START)) {
+        start.set(System.nanoTime());
+      } else if (message.startsWith(FLUSH_END)) {
+        Long t = start.get();
+        if (t != null) {
+          flushNanos.addAndGet(System.nanoTime() - t);
+          flushes.incrementAndGet();
+          start.remove();
+        }
+      }
+    }
+
+    @Override
+    public void close() {}
+  }
+}
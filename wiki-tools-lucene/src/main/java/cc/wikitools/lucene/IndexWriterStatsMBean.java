@@ -0,0 +1,31 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+/**
+ * JMX view of {@link IndexWriterStats}. Times are totals over all writers, in milliseconds.
+ */
+public interface IndexWriterStatsMBean {
+  long getRamBufferBytes();
+  int getRamBufferDocs();
+  long getFlushCount();
+  long getFlushMillis();
+  long getMergeCount();
+  long getMergeMillis();
+  long getMergedDocs();
+  int getRunningMerges();
+}
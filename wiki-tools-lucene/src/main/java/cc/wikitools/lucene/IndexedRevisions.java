@@ -0,0 +1,158 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.Bits;
+
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The revision of every article in an existing index, for incremental updates. As pages from a
+ * new dump go by, {@link #isCurrent(int, long)} tells whether the indexed copy is up to date and
+ * records that the article is still in the dump; the articles that were never seen are the ones
+ * to delete. Ids and revisions are held in sorted parallel arrays rather than a map, which would
+ * cost several times the memory for a full Wikipedia index. Thread-safe.
+ */
+public class IndexedRevisions {
+  private static final Set<String> ID_FIELD = ImmutableSet.of(IndexField.ID.name);
+
+  private final int[] ids;
+  private final long[] revisions;
+  private final BitSet seen;
+
+  private IndexedRevisions(int[] ids, long[] revisions) {
+    this.ids = ids;
+    this.revisions = revisions;
+    this.seen = new BitSet(ids.length);
+  }
+
+  /**
+   * Returns an empty table, for when there is no index to update yet.
+   */
+  public static IndexedRevisions empty() {
+    return new IndexedRevisions(new int[0], new long[0]);
+  }
+
+  /**
+   * Reads the id and revision of every live document in an index. Documents from indexes built
+   * before revisions were recorded have revision -1, and are always reindexed.
+   */
+  public static IndexedRevisions load(IndexReader reader) throws IOException {
+    int n = reader.numDocs();
+    // Sorted by (id, position) so the two arrays can be filled in id order.
+    long[] order = new long[n];
+    int[] ids = new int[n];
+    long[] revisions = new long[n];
+
+    int cnt = 0;
+    for (AtomicReaderContext context : reader.leaves()) {
+      AtomicReader leaf = context.reader();
+      NumericDocValues leafIds = leaf.getNumericDocValues(IndexField.ID.name);
+      // Segments of articles indexed before ids were kept in doc values are un-inverted instead.
+      FieldCache.Ints legacyIds = leafIds != null ? null : FieldCache.DEFAULT.getInts(leaf,
+          IndexField.ID.name, FieldCache.NUMERIC_UTILS_INT_PARSER, false);
+      NumericDocValues leafRevisions = leaf.getNumericDocValues(IndexField.REVISION.name);
+      Bits liveDocs = leaf.getLiveDocs();
+
+      for (int i = 0; i < leaf.maxDoc(); i++) {
+        if (liveDocs != null && !liveDocs.get(i)) {
+          continue;
+        }
+        int id = leafIds == null ? legacyIds.get(i) : (int) leafIds.get(i);
+        if (id == 0) {
+          // An old article merged into a segment with new ones, where the field cache would only
+          // return the doc values.
+          id = Integer.parseInt(leaf.document(i, ID_FIELD).get(IndexField.ID.name));
+        }
+        ids[cnt] = id;
+        revisions[cnt] = leafRevisions == null ? -1 : leafRevisions.get(i);
+        order[cnt] = ((long) ids[cnt] << 32) | cnt;
+        cnt++;
+      }
+    }
+
+    Arrays.sort(order, 0, cnt);
+    int[] sortedIds = new int[cnt];
+    long[] sortedRevisions = new long[cnt];
+    int unique = 0;
+    for (int i = 0; i < cnt; i++) {
+      int j = (int) order[i];
+      if (unique > 0 && sortedIds[unique - 1] == ids[j]) {
+        // Duplicate copies of an article: rewriting it through updateDocument drops the extras.
+        sortedRevisions[unique - 1] = -1;
+        continue;
+      }
+      sortedIds[unique] = ids[j];
+      sortedRevisions[unique] = revisions[j];
+      unique++;
+    }
+    return new IndexedRevisions(Arrays.copyOf(sortedIds, unique),
+        Arrays.copyOf(sortedRevisions, unique));
+  }
+
+  /**
+   * Marks an article as present in the dump and returns whether the index already has this
+   * revision of it. Unknown revisions (-1) are never current.
+   */
+  public boolean isCurrent(int id, long revision) {
+    int i = Arrays.binarySearch(ids, id);
+    if (i < 0) {
+      return false;
+    }
+    synchronized (seen) {
+      seen.set(i);
+    }
+    return revision >= 0 && revisions[i] == revision;
+  }
+
+  /**
+   * Returns whether the index has an article with this id, without marking it as seen.
+   */
+  public boolean contains(int id) {
+    return Arrays.binarySearch(ids, id) >= 0;
+  }
+
+  /**
+   * Returns the ids of indexed articles that have not been seen, in increasing order.
+   */
+  public int[] getUnseenIds() {
+    synchronized (seen) {
+      int[] unseen = new int[ids.length - seen.cardinality()];
+      int cnt = 0;
+      for (int i = seen.nextClearBit(0); i < ids.length; i = seen.nextClearBit(i + 1)) {
+        unseen[cnt++] = ids[i];
+      }
+      return unseen;
+    }
+  }
+
+  public int size() {
+    return ids.length;
+  }
+}
@@ -0,0 +1,687 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiCleanBuilder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Staged producer/consumer pipeline for indexing pages from a Wikipedia dump. Pages handed to
+ * {@link #put(String)} flow through a filter stage (title and id parsing, removal of
+ * non-articles and, when updating, of articles the index already has), a clean stage
+ * ({@link WikiClean#clean(String)}) and an index stage. Analysis happens inside
+ * {@link IndexWriter#addDocument(Iterable)}, so it runs on the index stage threads together
+ * with the write.
+ *
+ * Workers hold their own state: every filter and clean thread has its own {@link WikiClean},
+ * and every index thread fills a fixed set of reusable {@link ArticleDocument}s and hands them
+ * to the writer in batches. A batch that fails is added again one document at a time, so that
+ * an article the writer rejects doesn't take the rest of its batch with it; rejected articles
+ * are logged and counted (see {@link #getDroppedCount()}).
+ *
+ * Every stage reads from a bounded queue, so a reader that outpaces the workers blocks instead
+ * of buffering the dump on the heap.
+ *
+ * Each stage counts its pages and busy time as it goes, which, with the queue depths, is
+ * published through {@link IndexingPipelineMBean} to show which stage holds the others up.
+ */
+public class IndexingPipeline implements IndexingPipelineMBean {
+  private static final Logger LOG = Logger.getLogger(IndexingPipeline.class);
+
+  public static final int DEFAULT_QUEUE_SIZE = 1000;
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  // Marks the end of input on a queue; every worker of a stage consumes exactly one.
+  private static final WikipediaPage END = new WikipediaPage(null);
+
+  private static final String FILTER = "filter";
+  private static final String CLEAN = "clean";
+  private static final String INDEX = "index";
+
+  // How often a blocked producer wakes up to check whether the pipeline has failed.
+  private static final long OFFER_TIMEOUT_MS = 100;
+
+  private final List<IndexWriter> writers;
+  private final WikiCleanBuilder cleanerBuilder;
+  private final int maxdocs;
+
+  private int queueSize = DEFAULT_QUEUE_SIZE;
+  private int filterThreads = 1;
+  private int cleanThreads = 1;
+  private int indexThreads = 1;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private boolean updateExisting = false;
+  private boolean offsets = false;
+  private IndexedRevisions revisions = null;
+  private RedirectTable.Builder redirects = null;
+
+  private final AtomicInteger accepted = new AtomicInteger();
+  private final AtomicInteger indexed = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
+  private final AtomicInteger dropped = new AtomicInteger();
+  private final AtomicInteger redirected = new AtomicInteger();
+  private final AtomicInteger indexWorkers = new AtomicInteger();
+  private volatile boolean full = false;
+  private volatile Throwable failure = null;
+
+  // The read stage: time spent by callers of put() between pages, and blocked in put().
+  private final AtomicLong readPages = new AtomicLong();
+  private final AtomicLong readNanos = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  private final ThreadLocal<long[]> lastPut = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[] { startNanos };
+    }
+  };
+  private volatile long startNanos;
+
+  private Stage first;
+
+  public IndexingPipeline(IndexWriter writer, WikiCleanBuilder cleanerBuilder, int maxdocs) {
+    this(Collections.singletonList(Preconditions.checkNotNull(writer)), cleanerBuilder, maxdocs);
+  }
+
+  /**
+   * Creates a pipeline that writes to several indexes. Index threads are assigned to the writers
+   * round-robin, so a sharded build should use one index thread per writer.
+   */
+  public IndexingPipeline(List<IndexWriter> writers, WikiCleanBuilder cleanerBuilder, int maxdocs) {
+    Preconditions.checkArgument(!writers.isEmpty());
+    this.writers = writers;
+    this.cleanerBuilder = Preconditions.checkNotNull(cleanerBuilder);
+    this.maxdocs = maxdocs;
+  }
+
+  public void setQueueSize(int queueSize) {
+    Preconditions.checkArgument(queueSize > 0);
+    this.queueSize = queueSize;
+  }
+
+  public void setFilterThreads(int threads) {
+    Preconditions.checkArgument(threads > 0);
+    this.filterThreads = threads;
+  }
+
+  public void setCleanThreads(int threads) {
+    Preconditions.checkArgument(threads > 0);
+    this.cleanThreads = threads;
+  }
+
+  public void setIndexThreads(int threads) {
+    Preconditions.checkArgument(threads > 0);
+    this.indexThreads = threads;
+  }
+
+  /**
+   * Sets the number of documents each index thread hands to the writer at once.
+   */
+  public void setBatchSize(int batchSize) {
+    Preconditions.checkArgument(batchSize > 0);
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Replaces documents with the same article id instead of adding, so pages can be reindexed
+   * into an existing index. Articles whose page has become a redirect are deleted.
+   */
+  public void setUpdateExisting(boolean updateExisting) {
+    this.updateExisting = updateExisting;
+  }
+
+  /**
+   * Records term offsets in the article text, for snippets (see {@link ArticleDocument#ArticleDocument(boolean)}).
+   */
+  public void setOffsets(boolean offsets) {
+    this.offsets = offsets;
+  }
+
+  /**
+   * Skips articles whose revision is already in the index, for incremental updates. Implies
+   * {@link #setUpdateExisting(boolean)}, so that changed articles replace their old copies.
+   */
+  public void setRevisions(IndexedRevisions revisions) {
+    this.revisions = Preconditions.checkNotNull(revisions);
+    this.updateExisting = true;
+  }
+
+  /**
+   * Collects the redirects the filter stage drops, to build a {@link RedirectTable}.
+   */
+  public void setRedirects(RedirectTable.Builder redirects) {
+    this.redirects = Preconditions.checkNotNull(redirects);
+  }
+
+  public void start() {
+    Preconditions.checkState(first == null, "pipeline already started");
+
+    Stage index = new Stage(INDEX, indexThreads, null) {
+      @Override
+      Worker newWorker() {
+        return new IndexWorker();
+      }
+    };
+    Stage clean = new Stage(CLEAN, cleanThreads, index) {
+      @Override
+      Worker newWorker() {
+        return new CleanWorker();
+      }
+    };
+    first = new Stage(FILTER, filterThreads, clean) {
+      @Override
+      Worker newWorker() {
+        return new FilterWorker();
+      }
+    };
+
+    startNanos = System.nanoTime();
+    for (Stage stage = first; stage != null; stage = stage.next) {
+      stage.start();
+    }
+  }
+
+  /**
+   * Hands a raw page to the pipeline, blocking while the first stage is backed up.
+   *
+   * @return <code>false</code> if the pipeline has reached its maximum number of documents and
+   *     will not accept any more pages
+   */
+  public boolean put(String page) throws IOException, InterruptedException {
+    Preconditions.checkState(first != null, "pipeline not started");
+    long[] last = lastPut.get();
+    long start = System.nanoTime();
+    readNanos.addAndGet(start - last[0]);
+    try {
+      return offer(first.in, new WikipediaPage(page));
+    } finally {
+      last[0] = System.nanoTime();
+      blockedNanos.addAndGet(last[0] - start);
+      readPages.incrementAndGet();
+    }
+  }
+
+  /**
+   * Signals the end of input and blocks until every stage has drained.
+   */
+  public void finish() throws IOException, InterruptedException {
+    Preconditions.checkState(first != null, "pipeline not started");
+    first.end();
+
+    for (Stage stage = first; stage != null; stage = stage.next) {
+      stage.executor.shutdown();
+      stage.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    checkFailure();
+  }
+
+  @Override
+  public long getReadPages() {
+    return readPages.get();
+  }
+
+  @Override
+  public long getReadMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readNanos.get());
+  }
+
+  @Override
+  public long getReadBlockedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+  }
+
+  @Override
+  public long getFilterPages() {
+    return pages(FILTER);
+  }
+
+  @Override
+  public long getFilterMillis() {
+    return millis(FILTER);
+  }
+
+  @Override
+  public int getFilterQueueDepth() {
+    return queueDepth(FILTER);
+  }
+
+  @Override
+  public long getCleanPages() {
+    return pages(CLEAN);
+  }
+
+  @Override
+  public long getCleanMillis() {
+    return millis(CLEAN);
+  }
+
+  @Override
+  public int getCleanQueueDepth() {
+    return queueDepth(CLEAN);
+  }
+
+  @Override
+  public long getIndexPages() {
+    return pages(INDEX);
+  }
+
+  @Override
+  public long getIndexMillis() {
+    return millis(INDEX);
+  }
+
+  @Override
+  public int getIndexQueueDepth() {
+    return queueDepth(INDEX);
+  }
+
+  /**
+   * Returns the number of articles the filter stage let through.
+   */
+  @Override
+  public int getAcceptedCount() {
+    return accepted.get();
+  }
+
+  @Override
+  public int getIndexedCount() {
+    return indexed.get();
+  }
+
+  /**
+   * Returns the number of articles skipped because the index already has their revision.
+   */
+  @Override
+  public int getUnchangedCount() {
+    return unchanged.get();
+  }
+
+  /**
+   * Returns the number of articles that failed to index and were left out.
+   */
+  @Override
+  public int getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Returns the number of indexed articles deleted because their page is now a redirect.
+   */
+  public int getRedirectedCount() {
+    return redirected.get();
+  }
+
+  /**
+   * Returns whether pages were turned away because the maximum number of documents was reached.
+   */
+  public boolean isFull() {
+    return full;
+  }
+
+  /**
+   * Returns the counters of every stage as space-separated <code>key=value</code> pairs, for
+   * logging while the pipeline runs.
+   */
+  public String format() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("read.pages=%d read.ms=%d read.blocked_ms=%d", getReadPages(),
+        getReadMillis(), getReadBlockedMillis()));
+    for (Stage stage = first; stage != null; stage = stage.next) {
+      sb.append(String.format(" %s.pages=%d %s.ms=%d %s.queue=%d", stage.name, stage.pages.get(),
+          stage.name, TimeUnit.NANOSECONDS.toMillis(stage.nanos.get()), stage.name, stage.in.size()));
+    }
+    sb.append(" indexed=").append(getIndexedCount()).append(" dropped=").append(getDroppedCount());
+    return sb.toString();
+  }
+
+  private Stage stage(String name) {
+    for (Stage stage = first; stage != null; stage = stage.next) {
+      if (stage.name.equals(name)) {
+        return stage;
+      }
+    }
+    return null;
+  }
+
+  private long pages(String name) {
+    Stage stage = stage(name);
+    return stage == null ? 0 : stage.pages.get();
+  }
+
+  private long millis(String name) {
+    Stage stage = stage(name);
+    return stage == null ? 0 : TimeUnit.NANOSECONDS.toMillis(stage.nanos.get());
+  }
+
+  private int queueDepth(String name) {
+    Stage stage = stage(name);
+    return stage == null ? 0 : stage.in.size();
+  }
+
+  /**
+   * Logs the time and memory each stage spent per page. Call after {@link #finish()}.
+   */
+  public void logStats() {
+    for (Stage stage = first; stage != null; stage = stage.next) {
+      long pages = stage.pages.get();
+      if (pages == 0) {
+        continue;
+      }
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%s stage: %d pages, %.1f us/page", stage.name, pages,
+          stage.nanos.get() / 1000.0 / pages));
+      if (allocatedBytes() >= 0) {
+        sb.append(String.format(", %.1f KB allocated/page", stage.allocated.get() / 1024.0 / pages));
+      }
+      LOG.info(sb.toString());
+    }
+  }
+
+  private boolean offer(BlockingQueue<WikipediaPage> queue, WikipediaPage page)
+      throws IOException, InterruptedException {
+    while (!full || page == END) {
+      checkFailure();
+      if (queue.offer(page, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("Indexing pipeline failed", failure);
+    }
+  }
+
+  private void abort(Throwable t) {
+    LOG.error("Aborting indexing pipeline", t);
+    failure = t;
+    for (Stage stage = first; stage != null; stage = stage.next) {
+      stage.executor.shutdownNow();
+    }
+  }
+
+  private WikiClean newCleaner() {
+    synchronized (cleanerBuilder) {
+      return cleanerBuilder.build();
+    }
+  }
+
+  // Per-thread allocation counter, if the JVM has one; -1 otherwise.
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  private abstract static class Worker {
+    /**
+     * Processes a page, returning <code>false</code> if it should not be passed on.
+     */
+    abstract boolean process(WikipediaPage page) throws IOException;
+
+    void close() throws IOException {}
+  }
+
+  private abstract class Stage implements Runnable {
+    final String name;
+    final int threads;
+    final Stage next;
+    final BlockingQueue<WikipediaPage> in;
+    final AtomicInteger active;
+    // Totals over all workers of this stage. Pages and time are added as they are processed,
+    // allocations when a worker finishes.
+    final AtomicLong pages = new AtomicLong();
+    final AtomicLong nanos = new AtomicLong();
+    final AtomicLong allocated = new AtomicLong();
+    ExecutorService executor;
+
+    Stage(String name, int threads, Stage next) {
+      this.name = name;
+      this.threads = threads;
+      this.next = next;
+      this.in = new ArrayBlockingQueue<WikipediaPage>(queueSize);
+      this.active = new AtomicInteger(threads);
+    }
+
+    abstract Worker newWorker();
+
+    void start() {
+      executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat(name + "-%d").build());
+      for (int i = 0; i < threads; i++) {
+        executor.execute(this);
+      }
+    }
+
+    void end() throws IOException, InterruptedException {
+      for (int i = 0; i < threads; i++) {
+        offer(in, END);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        long startAllocated = allocatedBytes();
+
+        Worker worker = newWorker();
+        WikipediaPage page;
+        while ((page = in.take()) != END) {
+          boolean keep = false;
+          long start = System.nanoTime();
+          try {
+            keep = worker.process(page);
+          } catch (AlreadyClosedException e) {
+            // The writer was closed by an unrecoverable error; nothing more can be indexed.
+            throw e;
+          } catch (Exception e) {
+            LOG.warn("Error in " + name + " stage on page \"" + page.title + "\"", e);
+          }
+          nanos.addAndGet(System.nanoTime() - start);
+          pages.incrementAndGet();
+
+          if (keep && next != null) {
+            next.in.put(page);
+          }
+        }
+        long start = System.nanoTime();
+        worker.close();
+        nanos.addAndGet(System.nanoTime() - start);
+
+        if (startAllocated >= 0) {
+          allocated.addAndGet(allocatedBytes() - startAllocated);
+        }
+
+        if (active.decrementAndGet() == 0 && next != null) {
+          next.end();
+        }
+      } catch (InterruptedException e) {
+        // Only happens when the pipeline is aborted.
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        abort(t);
+      }
+    }
+  }
+
+  private class FilterWorker extends Worker {
+    private final WikiClean cleaner = newCleaner();
+
+    @Override
+    boolean process(WikipediaPage page) throws IOException {
+      page.title = cleaner.getTitle(page.page);
+
+      if (!IndexWikipediaDump.isArticleTitle(page.title)) {
+        return false;
+      }
+
+      String target = IndexWikipediaDump.getRedirectTarget(page.page);
+      if (target != null) {
+        if (redirects != null && !target.isEmpty()) {
+          redirects.add(page.title, target);
+        }
+        if (updateExisting) {
+          deleteRedirected(Integer.parseInt(cleaner.getId(page.page)));
+        }
+        return false;
+      }
+
+      page.id = Integer.parseInt(cleaner.getId(page.page));
+      page.revision = IndexWikipediaDump.getRevision(page.page);
+
+      if (revisions != null && revisions.isCurrent(page.id, page.revision)) {
+        unchanged.incrementAndGet();
+        return false;
+      }
+
+      int cnt = accepted.incrementAndGet();
+      if (cnt > maxdocs) {
+        full = true;
+        return false;
+      }
+      if (cnt % 10000 == 0) {
+        LOG.info(cnt + " articles added");
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Deletes the indexed copy of an article whose page was turned into a redirect.
+   */
+  private void deleteRedirected(int id) throws IOException {
+    // Without revisions the pages were picked out for reindexing, so any of them may be indexed.
+    if (revisions != null && !revisions.contains(id)) {
+      return;
+    }
+    for (IndexWriter writer : writers) {
+      writer.deleteDocuments(IndexWikipediaDump.idTerm(id));
+    }
+    redirected.incrementAndGet();
+  }
+
+  private class CleanWorker extends Worker {
+    private final WikiClean cleaner = newCleaner();
+
+    @Override
+    boolean process(WikipediaPage page) {
+      page.text = cleaner.clean(page.page);
+      // The raw XML is not needed downstream; don't hold on to it in the index queue.
+      page.page = null;
+      return true;
+    }
+  }
+
+  private class IndexWorker extends Worker {
+    private final IndexWriter writer =
+        writers.get(indexWorkers.getAndIncrement() % writers.size());
+    private final ArticleDocument[] templates = new ArticleDocument[batchSize];
+    private final List<Document> batch = new ArrayList<Document>(batchSize);
+    private final int[] ids = new int[batchSize];
+    private final String[] titles = new String[batchSize];
+
+    IndexWorker() {
+      for (int i = 0; i < batchSize; i++) {
+        templates[i] = new ArticleDocument(offsets);
+      }
+    }
+
+    @Override
+    boolean process(WikipediaPage page) throws IOException {
+      int i = batch.size();
+      ids[i] = page.id;
+      titles[i] = page.title;
+      batch.add(templates[i].set(page.id, page.revision, page.title, page.text));
+
+      if (batch.size() == batchSize) {
+        flush();
+      }
+      return true;
+    }
+
+    @Override
+    void close() throws IOException {
+      flush();
+    }
+
+    private void flush() throws IOException {
+      if (batch.isEmpty()) {
+        return;
+      }
+
+      try {
+        if (!updateExisting) {
+          try {
+            writer.addDocuments(batch);
+            indexed.addAndGet(batch.size());
+            return;
+          } catch (AlreadyClosedException e) {
+            throw e;
+          } catch (Exception e) {
+            // The whole block is rolled back; find the culprits by adding one at a time.
+            LOG.warn("Error indexing batch of " + batch.size() + " documents; retrying one by one", e);
+          }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+          try {
+            if (updateExisting) {
+              writer.updateDocument(IndexWikipediaDump.idTerm(ids[i]), batch.get(i));
+            } else {
+              writer.addDocument(batch.get(i));
+            }
+            indexed.incrementAndGet();
+          } catch (AlreadyClosedException e) {
+            throw e;
+          } catch (Exception e) {
+            dropped.incrementAndGet();
+            LOG.warn("Dropped article " + ids[i] + " (\"" + titles[i] + "\"): error indexing", e);
+          }
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+/**
+ * JMX view of an {@link IndexingPipeline}. The read stage is the thread or threads that call
+ * {@link IndexingPipeline#put(String)}: its time is spent decompressing and splitting the dump,
+ * and its blocked time waiting for room in the filter queue. Stage times are totals over all
+ * threads of the stage, in milliseconds; queue depths are the pages waiting for the stage.
+ */
+public interface IndexingPipelineMBean {
+  long getReadPages();
+  long getReadMillis();
+  long getReadBlockedMillis();
+
+  long getFilterPages();
+  long getFilterMillis();
+  int getFilterQueueDepth();
+
+  long getCleanPages();
+  long getCleanMillis();
+  int getCleanQueueDepth();
+
+  long getIndexPages();
+  long getIndexMillis();
+  int getIndexQueueDepth();
+
+  int getAcceptedCount();
+  int getIndexedCount();
+  int getUnchangedCount();
+  int getDroppedCount();
+}
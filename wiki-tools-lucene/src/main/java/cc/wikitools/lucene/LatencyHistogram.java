@@ -0,0 +1,138 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies that is cheap enough to record every request into, from any number of
+ * threads. Latencies are counted in buckets whose width grows with the latency: each power of two
+ * nanoseconds is split into {@value #SUB_BUCKETS} buckets, so a percentile is off by at most one
+ * part in {@value #SUB_BUCKETS}. Recording a latency is an increment of its bucket, with no locks
+ * or allocation; percentiles are computed on demand. Latencies over about 18 minutes are counted
+ * as 18 minutes.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  // Highest power of two nanoseconds counted: 2^40 ns is about 18 minutes.
+  private static final int MAX_EXPONENT = 40;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      // System.nanoTime() isn't guaranteed to be monotonic across cores on every platform.
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucket(nanos));
+    count.incrementAndGet();
+    total.addAndGet(nanos);
+    long m;
+    while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {}
+  }
+
+  static int bucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int shift = exponent - SUB_BITS;
+    int bucket = (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    return Math.min(bucket, BUCKETS - 1);
+  }
+
+  /**
+   * Returns the highest latency that falls in a bucket.
+   */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  /**
+   * Returns the latency, in nanoseconds, that a fraction <code>p</code> of the recorded latencies
+   * are at or below, or zero if none were recorded.
+   */
+  public long percentile(double p) {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      n += counts.get(i);
+    }
+    long rank = Math.max(1, (long) Math.ceil(p * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Clears the histogram. Latencies recorded while it is being cleared may be lost.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+
+  @Override
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : total.get() / 1e6 / n;
+  }
+
+  @Override
+  public double getP50() {
+    return percentile(0.5) / 1e6;
+  }
+
+  @Override
+  public double getP99() {
+    return percentile(0.99) / 1e6;
+  }
+
+  @Override
+  public double getP999() {
+    return percentile(0.999) / 1e6;
+  }
+
+  @Override
+  public double getMax() {
+    return max.get() / 1e6;
+  }
+}
@@ -1,10 +1,44 @@
 package cc.wikitools.lucene;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Runs one of the command-line tools. With <code>-server host:port</code> before the class name,
+ * sends the request to a running {@link WikipediaSearchServer} instead of opening the index.
+ */
 public class Launcher {
+  private static final String SERVER_OPTION = "-server";
+
+  // Tools the server can answer for, with their endpoints.
+  private static final Map<String, String> ENDPOINTS = ImmutableMap.of(
+      SearchWikipedia.class.getName(), "/search",
+      FetchWikipediaArticle.class.getName(), "/fetch",
+      FindWikipediaArticleId.class.getName(), "/id",
+      ScoreWikipediaArticle.class.getName(), "/score");
+
+  // Options that don't take a value.
+  private static final Map<String, Set<String>> FLAGS = ImmutableMap.<String, Set<String>>of(
+      SearchWikipedia.class.getName(), ImmutableSet.of("verbose", "title", "article", "stats"),
+      ScoreWikipediaArticle.class.getName(), ImmutableSet.of("explain"));
+
   public static void main(String[] args) throws Exception {
+    if (args.length > 2 && args[0].equals(SERVER_OPTION)) {
+      System.exit(request(args[1], args[2], Arrays.copyOfRange(args, 3, args.length)));
+    }
+
     Class<?> cls = Class.forName(args[0]);
     Method method = cls.getMethod("main", String[].class);
     String[] params = new String[args.length-1];
@@ -13,4 +47,58 @@ public class Launcher {
     System.out.println("Invoking " + args[0] + " with " + Arrays.toString(params));
     method.invoke(null, (Object) params);
   }
+
+  /**
+   * Sends a tool's options to the server as query parameters, and prints the response. The index
+   * option is dropped, since the server has its own index. Options the server doesn't support,
+   * such as <code>-queries</code>, are an error rather than silently ignored.
+   */
+  private static int request(String server, String tool, String[] args) throws IOException {
+    String endpoint = ENDPOINTS.get(tool);
+    if (endpoint == null) {
+      System.err.println("Error: " + tool + " can't be run on a server");
+      return -1;
+    }
+    Set<String> flags = FLAGS.containsKey(tool) ? FLAGS.get(tool) : ImmutableSet.<String>of();
+    Set<String> supported = WikipediaSearchServer.PARAMETERS.get(endpoint);
+
+    StringBuilder query = new StringBuilder();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("-")) {
+        System.err.println("Error: unexpected argument " + args[i]);
+        return -1;
+      }
+      String name = args[i].substring(1);
+      String value = "";
+      if (!flags.contains(name)) {
+        if (i + 1 == args.length) {
+          System.err.println("Error: missing value for " + args[i]);
+          return -1;
+        }
+        value = args[++i];
+      }
+      if (name.equals("index")) {
+        continue;
+      }
+      if (!supported.contains(name)) {
+        System.err.println("Error: -" + name + " is not supported with " + SERVER_OPTION);
+        return -1;
+      }
+      query.append(query.length() == 0 ? "?" : "&").append(URLEncoder.encode(name, "UTF-8"))
+          .append('=').append(URLEncoder.encode(value, "UTF-8"));
+    }
+
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://" + server + endpoint + query).openConnection();
+    int status = connection.getResponseCode();
+    InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+    PrintStream out = status == 200 ? System.out : System.err;
+    try {
+      ByteStreams.copy(in, out);
+    } finally {
+      in.close();
+    }
+    out.flush();
+    return status == 200 ? 0 : -1;
+  }
 }
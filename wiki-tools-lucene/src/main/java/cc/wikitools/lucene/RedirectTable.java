@@ -0,0 +1,277 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Maps the titles of redirect pages to the ids of the articles they point to. Redirects are not
+ * indexed as documents; instead they are kept in a file next to the index, an open-addressing
+ * hash table keyed on a 64-bit hash of the title. The table is memory-mapped when the index is
+ * on the local file system and read into a direct buffer otherwise, so a lookup is a hash and a
+ * probe or two, and the table stays off the heap. Lookups are thread-safe.
+ */
+public class RedirectTable {
+  private static final Logger LOG = Logger.getLogger(RedirectTable.class);
+
+  public static final String FILE_NAME = "redirects.tbl";
+
+  private static final int MAGIC = 0x57524454;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  // A 64-bit title hash followed by the target article id.
+  private static final int SLOT_SIZE = 12;
+  private static final int MAX_CHAIN = 4;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final ByteBuffer table;
+  private final int mask;
+  private final int size;
+
+  private RedirectTable(ByteBuffer table) throws IOException {
+    if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+      throw new IOException("Not a redirect table, or wrong version");
+    }
+    this.table = table;
+    this.mask = table.getInt(8) - 1;
+    this.size = table.getInt(12);
+  }
+
+  /**
+   * Opens the redirect table of an index, or returns <code>null</code> if it doesn't have one.
+   */
+  public static RedirectTable open(Directory dir) throws IOException {
+    if (!dir.fileExists(FILE_NAME)) {
+      return null;
+    }
+
+    if (dir instanceof FSDirectory) {
+      File file = new File(((FSDirectory) dir).getDirectory(), FILE_NAME);
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        return new RedirectTable(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+      } finally {
+        raf.close();
+      }
+    }
+
+    IndexInput in = dir.openInput(FILE_NAME, IOContext.READONCE);
+    try {
+      ByteBuffer table = ByteBuffer.allocateDirect((int) in.length());
+      byte[] buf = new byte[64 * 1024];
+      while (table.hasRemaining()) {
+        int len = Math.min(buf.length, table.remaining());
+        in.readBytes(buf, 0, len);
+        table.put(buf, 0, len);
+      }
+      return new RedirectTable(table);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the id of the article a redirect points to, or -1 if the title isn't a redirect.
+   */
+  public int get(String title) {
+    return get(table, mask, hash(title));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private static long hash(String title) {
+    long h = HASH.hashString(title, Charsets.UTF_8).asLong();
+    // Zero marks an empty slot.
+    return h == 0 ? 1 : h;
+  }
+
+  private static int get(ByteBuffer table, int mask, long hash) {
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      long h = table.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+      if (h == 0) {
+        return -1;
+      }
+      if (h == hash) {
+        return table.getInt(HEADER_SIZE + slot * SLOT_SIZE + 8);
+      }
+    }
+  }
+
+  /**
+   * Collects redirects during indexing and writes the table once the articles are indexed. The
+   * targets of redirects are titles, and can only be resolved to ids after every article has
+   * been seen, so redirects are spilled to a temporary file in the meantime. Thread-safe.
+   */
+  public static class Builder implements Closeable {
+    private final File spill;
+    private final Writer out;
+    private int cnt = 0;
+
+    public Builder() throws IOException {
+      spill = File.createTempFile("redirects", ".tsv");
+      spill.deleteOnExit();
+      out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spill), Charsets.UTF_8));
+    }
+
+    public synchronized void add(String source, String target) throws IOException {
+      // Titles can't contain tabs or newlines.
+      out.write(source);
+      out.write('\t');
+      out.write(target);
+      out.write('\n');
+      cnt++;
+    }
+
+    /**
+     * Resolves the collected redirects against an index and writes the table into a directory,
+     * replacing any previous table. Redirects to pages that aren't indexed are dropped;
+     * redirects to redirects are followed.
+     *
+     * @param searcher searcher over the finished index, without a redirect table of its own
+     * @return the number of redirects in the table
+     */
+    public synchronized int write(WikipediaSearcher searcher, Directory dir) throws IOException {
+      out.close();
+
+      // At most half full, so that probe sequences stay short.
+      int capacity = Integer.highestOneBit(Math.max(8, cnt) * 2 - 1) << 1;
+      Preconditions.checkState(capacity <= (1 << 27), "too many redirects");
+      int mask = capacity - 1;
+      ByteBuffer table = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * SLOT_SIZE);
+
+      // Redirects whose targets aren't articles, as (source hash, target hash) pairs.
+      long[] unresolved = new long[16];
+      int unresolvedCnt = 0;
+      int size = 0;
+
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(new FileInputStream(spill), Charsets.UTF_8));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          int tab = line.indexOf('\t');
+          String source = line.substring(0, tab);
+          String target = line.substring(tab + 1);
+
+          int id = searcher.getArticleId(target);
+          if (id != -1) {
+            size += put(table, mask, hash(source), id) ? 1 : 0;
+          } else {
+            if (unresolvedCnt + 2 > unresolved.length) {
+              unresolved = Arrays.copyOf(unresolved, 2 * unresolved.length);
+            }
+            unresolved[unresolvedCnt++] = hash(source);
+            unresolved[unresolvedCnt++] = hash(target);
+          }
+        }
+      } finally {
+        in.close();
+      }
+
+      // Double redirects: follow targets that turned out to be redirects themselves.
+      for (int round = 0; round < MAX_CHAIN; round++) {
+        int remaining = 0;
+        for (int i = 0; i < unresolvedCnt; i += 2) {
+          int id = get(table, mask, unresolved[i + 1]);
+          if (id != -1) {
+            size += put(table, mask, unresolved[i], id) ? 1 : 0;
+          } else {
+            unresolved[remaining++] = unresolved[i];
+            unresolved[remaining++] = unresolved[i + 1];
+          }
+        }
+        if (remaining == unresolvedCnt) {
+          break;
+        }
+        unresolvedCnt = remaining;
+      }
+      LOG.info(size + " redirects resolved, " + (cnt - size) + " dropped");
+
+      table.putInt(0, MAGIC);
+      table.putInt(4, VERSION);
+      table.putInt(8, capacity);
+      table.putInt(12, size);
+
+      if (dir.fileExists(FILE_NAME)) {
+        dir.deleteFile(FILE_NAME);
+      }
+      IndexOutput output = dir.createOutput(FILE_NAME, IOContext.DEFAULT);
+      try {
+        byte[] buf = new byte[64 * 1024];
+        table.clear();
+        while (table.hasRemaining()) {
+          int len = Math.min(buf.length, table.remaining());
+          table.get(buf, 0, len);
+          output.writeBytes(buf, 0, len);
+        }
+      } finally {
+        output.close();
+      }
+
+      return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+      spill.delete();
+    }
+
+    private static boolean put(ByteBuffer table, int mask, long hash, int id) {
+      for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+        long h = table.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+        if (h == hash) {
+          // Duplicate redirect; keep the first one.
+          return false;
+        }
+        if (h == 0) {
+          table.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+          table.putInt(HEADER_SIZE + slot * SLOT_SIZE + 8, id);
+          return true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Cache of search results for {@link WikipediaSearcher}, keyed by field, query string and number
+ * of results. Results are kept as parallel docid and score arrays rather than {@link TopDocs},
+ * which are rebuilt on every hit. Docids are only valid for one reader, so the cache empties
+ * itself when it is used with a different reader than the one it was filled from. Lookups only
+ * take a lock when the reader changes. Thread-safe.
+ */
+public class ResultCache {
+  private final Cache<Key, Entry> cache;
+  private volatile Generation current = new Generation(null, 0);
+
+  private ResultCache(Cache<Key, Entry> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Creates a cache that holds up to <code>maxEntries</code> results, evicting the least
+   * recently used.
+   */
+  public static ResultCache withMaxEntries(long maxEntries) {
+    Preconditions.checkArgument(maxEntries > 0);
+    return new ResultCache(CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats()
+        .<Key, Entry>build());
+  }
+
+  /**
+   * Creates a cache that holds results up to an approximate total size in bytes, so that
+   * results with many hits count for more than small ones.
+   */
+  public static ResultCache withMaxBytes(long maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0);
+    return new ResultCache(CacheBuilder.newBuilder().maximumWeight(maxBytes)
+        .weigher(new Weigher<Key, Entry>() {
+          @Override
+          public int weigh(Key key, Entry entry) {
+            return 2 * key.query.length() + 8 * entry.docs.length + 64;
+          }
+        }).recordStats().<Key, Entry>build());
+  }
+
+  /**
+   * Returns the cached results of a query against <code>reader</code>, or <code>null</code>.
+   */
+  public TopDocs get(IndexReader reader, String field, String query, int k) {
+    long generation = checkReader(reader);
+    Key key = new Key(field, query, k);
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.generation != generation) {
+      // Put by a thread that raced with a change of reader.
+      cache.invalidate(key);
+      return null;
+    }
+
+    ScoreDoc[] scoreDocs = new ScoreDoc[entry.docs.length];
+    for (int i = 0; i < scoreDocs.length; i++) {
+      scoreDocs[i] = new ScoreDoc(entry.docs[i], entry.scores[i]);
+    }
+    return new TopDocs(entry.totalHits, scoreDocs, entry.maxScore);
+  }
+
+  /**
+   * Caches the results of a query against <code>reader</code>. Results from a reader the cache
+   * has already moved past are dropped.
+   */
+  public void put(IndexReader reader, String field, String query, int k, TopDocs results) {
+    Generation current = this.current;
+    if (current.reader == reader) {
+      cache.put(new Key(field, query, k), new Entry(current.number, results));
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Returns hit, miss and eviction counts, for sizing the cache.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Empties the cache if <code>reader</code> isn't the one it was filled from, and returns the
+   * generation of the reader.
+   */
+  private long checkReader(IndexReader reader) {
+    Generation current = this.current;
+    if (current.reader == reader) {
+      return current.number;
+    }
+    synchronized (this) {
+      if (this.current.reader != reader) {
+        cache.invalidateAll();
+        this.current = new Generation(reader, this.current.number + 1);
+      }
+      return this.current.number;
+    }
+  }
+
+  // The reader the cache is being filled from, numbered so that entries can tell which reader
+  // they came from without holding on to it.
+  private static class Generation {
+    final IndexReader reader;
+    final long number;
+
+    Generation(IndexReader reader, long number) {
+      this.reader = reader;
+      this.number = number;
+    }
+  }
+
+  private static class Key {
+    final String field;
+    final String query;
+    final int k;
+
+    Key(String field, String query, int k) {
+      this.field = field;
+      this.query = query;
+      this.k = k;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return k == other.k && field.equals(other.field) && query.equals(other.query);
+    }
+
+    @Override
+    public int hashCode() {
+      return (31 * field.hashCode() + query.hashCode()) * 31 + k;
+    }
+  }
+
+  private static class Entry {
+    // Not the reader itself, which would keep its segments reachable after it is closed.
+    final long generation;
+    final int totalHits;
+    final float maxScore;
+    final int[] docs;
+    final float[] scores;
+
+    Entry(long generation, TopDocs results) {
+      this.generation = generation;
+      totalHits = results.totalHits;
+      maxScore = results.getMaxScore();
+      docs = new int[results.scoreDocs.length];
+      scores = new float[results.scoreDocs.length];
+      for (int i = 0; i < docs.length; i++) {
+        docs[i] = results.scoreDocs[i].doc;
+        scores[i] = results.scoreDocs[i].score;
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.util.Bits;
+
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Indexes a dump with {@link IndexWikipediaDump}, then runs a query workload against the new
+ * index, and reports indexing throughput, index size and query latency. Together with
+ * {@link GenerateWikipediaDump}, this measures the whole system without a real dump. Queries come
+ * from a file, or are the titles of randomly chosen articles.
+ */
+public class RunEndToEndBenchmark {
+  private static final int DEFAULT_NUM_QUERIES = 1000;
+  private static final int DEFAULT_NUM_RESULTS = 10;
+  private static final Set<String> TITLE_FIELD = ImmutableSet.of(IndexField.TITLE.name);
+
+  private static final String INPUT_OPTION = "input";
+  private static final String DUMP_INDEX_OPTION = "dump_index";
+  private static final String INDEX_OPTION = "index";
+  private static final String THREADS_OPTION = "threads";
+  private static final String MULTISTREAM_OPTION = "multistream";
+  private static final String QUERIES_OPTION = "queries";
+  private static final String NUM_QUERIES_OPTION = "num_queries";
+  private static final String QUERY_THREADS_OPTION = "query_threads";
+  private static final String NUM_RESULTS_OPTION = "num_results";
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("bz2 Wikipedia XML dump file").create(INPUT_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("multistream index of the dump, to count its pages").create(DUMP_INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("dir").hasArg()
+        .withDescription("index location; overwritten").create(INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of indexing threads").create(THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("file of queries, one per line (default: titles of random articles)")
+        .create(QUERIES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of title queries to run without -queries (default: "
+            + DEFAULT_NUM_QUERIES + ")").create(NUM_QUERIES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of threads to run queries with (default: number of cores)")
+        .create(QUERY_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of results to return").create(NUM_RESULTS_OPTION));
+
+    options.addOption(new Option(MULTISTREAM_OPTION,
+        "input is a multistream dump; decompress its streams in parallel"));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      System.exit(-1);
+    }
+
+    if (!cmdline.hasOption(INPUT_OPTION) || !cmdline.hasOption(INDEX_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(RunEndToEndBenchmark.class.getName(), options);
+      System.exit(-1);
+    }
+
+    File input = new File(cmdline.getOptionValue(INPUT_OPTION));
+    if (!input.exists()) {
+      System.err.println("Error: " + input + " does not exist!");
+      System.exit(-1);
+    }
+    File indexLocation = new File(cmdline.getOptionValue(INDEX_OPTION));
+
+    int numResults = cmdline.hasOption(NUM_RESULTS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(NUM_RESULTS_OPTION)) : DEFAULT_NUM_RESULTS;
+    int queryThreads = cmdline.hasOption(QUERY_THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(QUERY_THREADS_OPTION))
+        : Runtime.getRuntime().availableProcessors();
+
+    PrintStream out = new PrintStream(System.out, true, "UTF-8");
+
+    // Indexing.
+    List<String> indexArgs = Lists.newArrayList(
+        "-" + INPUT_OPTION, input.getPath(), "-" + INDEX_OPTION, indexLocation.getPath());
+    if (cmdline.hasOption(THREADS_OPTION)) {
+      indexArgs.add("-" + THREADS_OPTION);
+      indexArgs.add(cmdline.getOptionValue(THREADS_OPTION));
+    }
+    if (cmdline.hasOption(MULTISTREAM_OPTION)) {
+      indexArgs.add("-" + MULTISTREAM_OPTION);
+    }
+    long start = System.nanoTime();
+    IndexWikipediaDump.main(indexArgs.toArray(new String[indexArgs.size()]));
+    double indexSecs = (System.nanoTime() - start) / 1e9;
+
+    if (!indexLocation.exists()) {
+      System.err.println("Error: indexing failed");
+      System.exit(-1);
+    }
+
+    WikipediaSearcher searcher = new WikipediaSearcher(indexLocation);
+    int articles = searcher.getIndexReader().numDocs();
+    double dumpMb = input.length() / 1024.0 / 1024.0;
+    out.println(String.format("Indexed %d articles in %.1fs: %.1f articles/s, %.2f MB/s of bz2 dump",
+        articles, indexSecs, articles / indexSecs, dumpMb / indexSecs));
+    if (cmdline.hasOption(DUMP_INDEX_OPTION)) {
+      int pages = countPages(cmdline.getOptionValue(DUMP_INDEX_OPTION));
+      out.println(String.format("Read %d pages: %.1f pages/s", pages, pages / indexSecs));
+    }
+    out.println(String.format("Dump size %.1f MB, index size %.1f MB", dumpMb,
+        size(indexLocation) / 1024.0 / 1024.0));
+
+    // Queries.
+    List<String> queries = Lists.newArrayList();
+    if (cmdline.hasOption(QUERIES_OPTION)) {
+      for (String line : Files.readLines(new File(cmdline.getOptionValue(QUERIES_OPTION)), Charsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          queries.add(line.trim());
+        }
+      }
+    } else {
+      int numQueries = cmdline.hasOption(NUM_QUERIES_OPTION) ?
+          Integer.parseInt(cmdline.getOptionValue(NUM_QUERIES_OPTION)) : DEFAULT_NUM_QUERIES;
+      Random random = new Random(1);
+      int maxDoc = searcher.getIndexReader().maxDoc();
+      Bits liveDocs = MultiFields.getLiveDocs(searcher.getIndexReader());
+      while (queries.size() < numQueries && articles > 0) {
+        int docid = random.nextInt(maxDoc);
+        if (liveDocs == null || liveDocs.get(docid)) {
+          queries.add(QueryParser.escape(searcher.doc(docid, TITLE_FIELD).get(IndexField.TITLE.name)));
+        }
+      }
+    }
+
+    if (queries.isEmpty()) {
+      System.err.println("Error: no queries");
+      System.exit(-1);
+    }
+
+    // One untimed pass to warm up the JIT and the OS cache.
+    for (String q : queries) {
+      searcher.searchArticle(q, numResults);
+    }
+    searcher.getStats().reset();
+    long[] nanos = new long[queries.size()];
+    start = System.nanoTime();
+    runQueries(searcher, queries, numResults, queryThreads, nanos);
+    double querySecs = (System.nanoTime() - start) / 1e9;
+    out.println(String.format("Ran %d queries in %.1fs with %d threads: %.1f queries/s",
+        queries.size(), querySecs, queryThreads, queries.size() / querySecs));
+    out.println(CompareSearchLatency.summarize("search", nanos));
+    out.print(searcher.getStats().report());
+
+    searcher.close();
+    out.close();
+  }
+
+  /**
+   * Runs the queries on a pool of threads, recording the latency of each.
+   */
+  private static void runQueries(final WikipediaSearcher searcher, final List<String> queries,
+      final int numResults, int threads, final long[] nanos) throws InterruptedException {
+    final AtomicInteger next = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          int i;
+          while ((i = next.getAndIncrement()) < queries.size()) {
+            long start = System.nanoTime();
+            searcher.searchArticle(queries.get(i), numResults);
+            nanos[i] = System.nanoTime() - start;
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  private static int countPages(String indexPath) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(indexPath));
+    if (indexPath.endsWith(".bz2")) {
+      in = new BZip2CompressorInputStream(in, true);
+    }
+    BufferedReader br = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+    int pages = 0;
+    try {
+      while (br.readLine() != null) {
+        pages++;
+      }
+    } finally {
+      br.close();
+    }
+    return pages;
+  }
+
+  private static long size(File file) {
+    if (!file.isDirectory()) {
+      return file.length();
+    }
+    long size = 0;
+    for (File child : file.listFiles()) {
+      size += size(child);
+    }
+    return size;
+  }
+}
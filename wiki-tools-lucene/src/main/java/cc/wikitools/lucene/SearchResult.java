@@ -0,0 +1,36 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+/**
+ * A search hit, ready to be printed: see {@link WikipediaSearcher#renderResults(org.apache.lucene.search.TopDocs)}.
+ */
+public class SearchResult {
+  /** Lucene docid, only valid for the reader that was searched. */
+  public final int docid;
+  /** Wikipedia id of the article. */
+  public final int id;
+  public final String title;
+  public final float score;
+
+  public SearchResult(int docid, int id, String title, float score) {
+    this.docid = docid;
+    this.id = id;
+    this.title = title;
+    this.score = score;
+  }
+}
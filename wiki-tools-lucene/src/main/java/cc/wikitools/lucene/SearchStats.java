@@ -0,0 +1,197 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+
+/**
+ * Latencies of the operations of a {@link WikipediaSearcher}, in total and broken down into
+ * phases, so that a slow operation can be traced to query parsing, rewriting, searching or
+ * loading stored fields. Every call is recorded; see {@link LatencyHistogram} for the cost. If
+ * the searcher has a {@link ResultCache}, its hits, misses and evictions are reported too.
+ */
+public class SearchStats implements SearchStatsMBean {
+  public static enum Operation {
+    SEARCH_ARTICLE("search_article"),
+    SEARCH_TITLE("search_title"),
+    RENDER_RESULTS("render_results"),
+    FETCH_BY_ID("fetch_by_id"),
+    FETCH_BY_TITLE("fetch_by_title"),
+    ARTICLE_ID("article_id"),
+    SCORE("score");
+
+    public final String name;
+
+    Operation(String s) {
+      name = s;
+    }
+  };
+
+  /**
+   * Phases of an operation. Lookups of articles by id or title are counted as searches, and
+   * loading ids and titles from doc values as fetches. Operations skip the phases they don't
+   * have, and a search answered from the result cache has only a total.
+   */
+  public static enum Phase {
+    PARSE("parse"),
+    REWRITE("rewrite"),
+    SEARCH("search"),
+    FETCH("fetch"),
+    TOTAL("total");
+
+    public final String name;
+
+    Phase(String s) {
+      name = s;
+    }
+  };
+
+  private final LatencyHistogram[][] histograms =
+      new LatencyHistogram[Operation.values().length][Phase.values().length];
+  private final List<ObjectName> registered = Lists.newArrayList();
+  private ResultCache cache = null;
+  // Counts of the cache at the last reset, since its own counts can't be cleared.
+  private CacheStats cacheBaseline = null;
+
+  public SearchStats() {
+    for (int i = 0; i < histograms.length; i++) {
+      for (int j = 0; j < histograms[i].length; j++) {
+        histograms[i][j] = new LatencyHistogram();
+      }
+    }
+  }
+
+  public LatencyHistogram get(Operation op, Phase phase) {
+    return histograms[op.ordinal()][phase.ordinal()];
+  }
+
+  /**
+   * Records the time from <code>start</code> to now as a phase of an operation, and returns now,
+   * to start the next phase from.
+   */
+  public long time(Operation op, Phase phase, long start) {
+    long now = System.nanoTime();
+    histograms[op.ordinal()][phase.ordinal()].record(now - start);
+    return now;
+  }
+
+  /**
+   * Reports the counts of <code>cache</code> from now on, or stops if it is <code>null</code>.
+   */
+  public synchronized void setResultCache(ResultCache cache) {
+    this.cache = cache;
+    this.cacheBaseline = cache == null ? null : cache.stats();
+  }
+
+  /**
+   * Returns the counts of the result cache since it was set or the stats were reset, or
+   * <code>null</code> if results aren't cached.
+   */
+  public synchronized CacheStats getCacheStats() {
+    return cache == null ? null : cache.stats().minus(cacheBaseline);
+  }
+
+  @Override
+  public long getCacheHitCount() {
+    CacheStats stats = getCacheStats();
+    return stats == null ? 0 : stats.hitCount();
+  }
+
+  @Override
+  public long getCacheMissCount() {
+    CacheStats stats = getCacheStats();
+    return stats == null ? 0 : stats.missCount();
+  }
+
+  @Override
+  public long getCacheEvictionCount() {
+    CacheStats stats = getCacheStats();
+    return stats == null ? 0 : stats.evictionCount();
+  }
+
+  @Override
+  public String report() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-16s %-8s %10s %9s %9s %9s %9s %9s%n", "operation", "phase", "count",
+        "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+    for (Operation op : Operation.values()) {
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram h = get(op, phase);
+        if (h.getCount() == 0) {
+          continue;
+        }
+        sb.append(String.format("%-16s %-8s %10d %9.3f %9.3f %9.3f %9.3f %9.3f%n", op.name,
+            phase.name, h.getCount(), h.getMean(), h.getP50(), h.getP99(), h.getP999(), h.getMax()));
+      }
+    }
+    CacheStats cacheStats = getCacheStats();
+    if (cacheStats != null) {
+      sb.append(String.format("result_cache hits=%d misses=%d hit_rate=%.3f evictions=%d%n",
+          cacheStats.hitCount(), cacheStats.missCount(), cacheStats.hitRate(),
+          cacheStats.evictionCount()));
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public synchronized void reset() {
+    for (LatencyHistogram[] row : histograms) {
+      for (LatencyHistogram h : row) {
+        h.reset();
+      }
+    }
+    if (cache != null) {
+      cacheBaseline = cache.stats();
+    }
+  }
+
+  /**
+   * Publishes these stats, and a histogram for every operation and phase, with the platform
+   * MBean server, under <code>name</code>.
+   */
+  public synchronized void register(String name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    String prefix = IndexWikipediaDump.JMX_DOMAIN + ":searcher=" + ObjectName.quote(name);
+    ObjectName stats = new ObjectName(prefix + ",type=SearchStats");
+    server.registerMBean(this, stats);
+    registered.add(stats);
+    for (Operation op : Operation.values()) {
+      for (Phase phase : Phase.values()) {
+        ObjectName histogram = new ObjectName(prefix + ",type=SearchLatency,operation=" + op.name
+            + ",phase=" + phase.name);
+        server.registerMBean(get(op, phase), histogram);
+        registered.add(histogram);
+      }
+    }
+  }
+
+  public synchronized void unregister() throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : registered) {
+      server.unregisterMBean(name);
+    }
+    registered.clear();
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+/**
+ * JMX view of {@link SearchStats}. The latencies themselves are published as one
+ * {@link LatencyHistogramMBean} per operation and phase.
+ */
+public interface SearchStatsMBean {
+  /**
+   * Returns a table of the latencies of every operation and phase.
+   */
+  String report();
+
+  /**
+   * Returns the number of searches answered from the result cache, or 0 if results aren't
+   * cached.
+   */
+  long getCacheHitCount();
+
+  long getCacheMissCount();
+
+  long getCacheEvictionCount();
+
+  void reset();
+}
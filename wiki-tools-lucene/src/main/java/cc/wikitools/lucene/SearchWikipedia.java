@@ -16,8 +16,13 @@
 
 package cc.wikitools.lucene;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -27,12 +32,8 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
-import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
-
 public class SearchWikipedia {
   private static final int DEFAULT_NUM_RESULTS = 10;
 
@@ -42,6 +43,11 @@ public class SearchWikipedia {
   private static final String VERBOSE_OPTION = "verbose";
   private static final String ARTICLE_OPTION = "article";
   private static final String TITLE_OPTION = "title";
+  private static final String SEARCH_THREADS_OPTION = "search_threads";
+  private static final String QUERIES_OPTION = "queries";
+  private static final String THREADS_OPTION = "threads";
+  private static final String CACHE_OPTION = "cache";
+  private static final String STATS_OPTION = "stats";
 
   @SuppressWarnings("static-access")
   public static void main(String[] args) throws Exception {
@@ -52,10 +58,22 @@ public class SearchWikipedia {
         .withDescription("query text").create(QUERY_OPTION));
     options.addOption(OptionBuilder.withArgName("num").hasArg()
         .withDescription("number of results to return").create(NUM_RESULTS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of threads to search index segments in parallel (default: 0, serial)")
+        .create(SEARCH_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("file of queries, one per line; prints tab-separated results").create(QUERIES_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of threads to run -queries with (default: number of cores)")
+        .create(THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("cache results of up to this many queries").create(CACHE_OPTION));
 
     options.addOption(new Option(VERBOSE_OPTION, "print out complete document"));
     options.addOption(new Option(TITLE_OPTION, "search title"));
     options.addOption(new Option(ARTICLE_OPTION, "search article"));
+    options.addOption(new Option(STATS_OPTION,
+        "print latencies by operation and phase to stderr when done"));
 
     CommandLine cmdline = null;
     CommandLineParser parser = new GnuParser();
@@ -66,8 +84,8 @@ public class SearchWikipedia {
       System.exit(-1);
     }
 
-    if (!cmdline.hasOption(QUERY_OPTION) || !cmdline.hasOption(INDEX_OPTION)
-        || !cmdline.hasOption(QUERY_OPTION)) {
+    if (!cmdline.hasOption(INDEX_OPTION)
+        || !(cmdline.hasOption(QUERY_OPTION) || cmdline.hasOption(QUERIES_OPTION))) {
       HelpFormatter formatter = new HelpFormatter();
       formatter.printHelp(SearchWikipedia.class.getName(), options);
       System.exit(-1);
@@ -79,7 +97,6 @@ public class SearchWikipedia {
       System.exit(-1);
     }
 
-    String queryText = cmdline.getOptionValue(QUERY_OPTION);
     int numResults = cmdline.hasOption(NUM_RESULTS_OPTION) ?
         Integer.parseInt(cmdline.getOptionValue(NUM_RESULTS_OPTION)) : DEFAULT_NUM_RESULTS;
     boolean verbose = cmdline.hasOption(VERBOSE_OPTION);
@@ -88,29 +105,128 @@ public class SearchWikipedia {
     PrintStream out = new PrintStream(System.out, true, "UTF-8");
 
     WikipediaSearcher searcher = new WikipediaSearcher(indexLocation);
+    if (cmdline.hasOption(SEARCH_THREADS_OPTION)) {
+      searcher.setSearchThreads(Integer.parseInt(cmdline.getOptionValue(SEARCH_THREADS_OPTION)));
+    }
+    if (cmdline.hasOption(CACHE_OPTION)) {
+      searcher.setResultCache(
+          ResultCache.withMaxEntries(Long.parseLong(cmdline.getOptionValue(CACHE_OPTION))));
+    }
+
+    if (cmdline.hasOption(QUERIES_OPTION)) {
+      int threads = cmdline.hasOption(THREADS_OPTION) ?
+          Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION))
+          : Runtime.getRuntime().availableProcessors();
+      searchAll(searcher, new File(cmdline.getOptionValue(QUERIES_OPTION)), numResults,
+          searchArticle, threads, out);
+      if (cmdline.hasOption(STATS_OPTION)) {
+        System.err.print(searcher.getStats().report());
+      }
+      searcher.close();
+      out.close();
+      return;
+    }
+
+    String queryText = cmdline.getOptionValue(QUERY_OPTION);
     TopDocs rs = null;
     if (searchArticle) {
       rs = searcher.searchArticle(queryText, numResults);
     } else {
       rs = searcher.searchTitle(queryText, numResults);
     }
+    if (rs == null) {
+      System.err.println("Error: unable to parse query \"" + queryText + "\"");
+      searcher.close();
+      System.exit(-1);
+    }
 
     int i = 1;
-    for (ScoreDoc scoreDoc : rs.scoreDocs) {
-      Document hit = searcher.doc(scoreDoc.doc);
-
-      out.println(String.format("%d. %s (wiki id = %s, lucene id = %d) %f", i,
-          hit.getField(IndexField.TITLE.name).stringValue(),
-          hit.getField(IndexField.ID.name).stringValue(),
-          scoreDoc.doc,
-          scoreDoc.score));
+    for (SearchResult result : searcher.renderResults(rs)) {
+      out.println(String.format("%d. %s (wiki id = %d, lucene id = %d) %f", i,
+          result.title, result.id, result.docid, result.score));
       if (verbose) {
-        out.println("# " + hit.toString().replaceAll("[\\n\\r]+", " "));
+        out.println("# " + searcher.doc(result.docid).toString().replaceAll("[\\n\\r]+", " "));
       }
       i++;
     }
 
+    if (cmdline.hasOption(STATS_OPTION)) {
+      System.err.print(searcher.getStats().report());
+    }
     searcher.close();
     out.close();
   }
+
+  /**
+   * Runs every query in a file and prints one tab-separated line per hit: query number, query,
+   * rank, wiki id, title and score. Queries are read in chunks, and each chunk is searched as a
+   * batch on a pool of threads, with results printed in the order of the queries. Only one chunk
+   * is held at a time, so the file can be arbitrarily large.
+   */
+  static void searchAll(WikipediaSearcher searcher, File file, int numResults,
+      boolean searchArticle, int threads, PrintStream out) throws Exception {
+    searcher.setBatchThreads(threads);
+    int chunkSize = 64 * threads;
+
+    long startTime = System.currentTimeMillis();
+    int cnt = 0;
+    List<String> chunk = new ArrayList<String>(chunkSize);
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String q = line.trim();
+        if (q.isEmpty()) {
+          continue;
+        }
+        chunk.add(q);
+        if (chunk.size() == chunkSize) {
+          cnt = searchChunk(searcher, chunk, cnt, numResults, searchArticle, out);
+        }
+      }
+      cnt = searchChunk(searcher, chunk, cnt, numResults, searchArticle, out);
+    } finally {
+      in.close();
+      searcher.setBatchThreads(0);
+    }
+
+    long elapsed = System.currentTimeMillis() - startTime;
+    System.err.println(String.format("%d queries in %.1fs: %.1f queries/s", cnt, elapsed / 1000.0,
+        cnt * 1000.0 / Math.max(1, elapsed)));
+    if (searcher.getResultCache() != null) {
+      System.err.println(searcher.getResultCache().stats());
+    }
+  }
+
+  /**
+   * Searches and prints a chunk of queries, numbered after the <code>cnt</code> queries before
+   * them, and empties it. Returns the number of queries so far.
+   */
+  private static int searchChunk(WikipediaSearcher searcher, List<String> chunk, int cnt,
+      int numResults, boolean searchArticle, PrintStream out) {
+    List<TopDocs> results = searchArticle ?
+        searcher.searchArticles(chunk, numResults) : searcher.searchTitles(chunk, numResults);
+    for (int i = 0; i < chunk.size(); i++) {
+      out.print(format(searcher, ++cnt, chunk.get(i), results.get(i)));
+    }
+    chunk.clear();
+    return cnt;
+  }
+
+  private static String format(WikipediaSearcher searcher, int n, String q, TopDocs rs) {
+    if (rs == null) {
+      return "";
+    }
+    // Queries are single lines, but may contain tabs.
+    String query = q.replace('\t', ' ');
+    StringBuilder sb = new StringBuilder();
+    int i = 1;
+    for (SearchResult result : searcher.renderResults(rs)) {
+      sb.append(n).append('\t').append(query).append('\t').append(i).append('\t')
+          .append(result.id).append('\t').append(result.title).append('\t')
+          .append(result.score).append('\n');
+      i++;
+    }
+    return sb.toString();
+  }
 }
@@ -0,0 +1,46 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import org.apache.lucene.codecs.FilterCodec;
+import org.apache.lucene.codecs.StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene40.Lucene40StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene42.Lucene42Codec;
+
+/**
+ * The default codec, except that stored fields aren't compressed in blocks. Lucene's default
+ * stored fields format compresses several documents together, so loading just the id and title
+ * of a hit means decompressing its whole article, and often its neighbors too. Here every
+ * document is addressed individually and unwanted fields are skipped with a seek, so loading
+ * the id and title of a hit only reads those fields. Article text is compressed one article at a
+ * time instead (see {@link ArticleDocument}). Registered by name, so that indexes written with it
+ * can be read back.
+ */
+public final class WikipediaCodec extends FilterCodec {
+  public static final String NAME = "Wikipedia42";
+
+  private final StoredFieldsFormat storedFieldsFormat = new Lucene40StoredFieldsFormat();
+
+  public WikipediaCodec() {
+    super(NAME, new Lucene42Codec());
+  }
+
+  @Override
+  public StoredFieldsFormat storedFieldsFormat() {
+    return storedFieldsFormat;
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maps Wikipedia article ids to Lucene docids for one {@link IndexReader}. The map is an
+ * open-addressing hash table with linear probing, kept in a direct buffer so that it stays off
+ * the heap. It is built from the exact-value (shift 0) terms of the id field, skipping deleted
+ * documents, and must be rebuilt whenever the reader changes. Lookups are thread-safe.
+ */
+public class WikipediaIdMap {
+  private final IndexReader reader;
+  // Pairs of (article id, docid + 1); a zero docid slot is empty.
+  private final IntBuffer table;
+  private final int mask;
+  private int size = 0;
+
+  private WikipediaIdMap(IndexReader reader) {
+    this.reader = reader;
+
+    int capacity = capacity(reader.numDocs());
+    this.table = ByteBuffer.allocateDirect(capacity * 8).asIntBuffer();
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Returns the number of slots in the table for <code>numDocs</code> documents.
+   */
+  static int capacity(int numDocs) {
+    // At most half full, so that probe sequences stay short. Computed in long, since doubling
+    // overflows for large indexes.
+    long capacity = Long.highestOneBit(Math.max(8, numDocs) * 2L - 1) << 1;
+    // Each slot takes 8 bytes, and a buffer can't hold more than Integer.MAX_VALUE.
+    Preconditions.checkArgument(capacity * 8 <= Integer.MAX_VALUE,
+        "too many documents for id map: %s", numDocs);
+    return (int) capacity;
+  }
+
+  public static WikipediaIdMap build(IndexReader reader) throws IOException {
+    WikipediaIdMap map = new WikipediaIdMap(reader);
+
+    DocsEnum docs = null;
+    for (AtomicReaderContext context : reader.leaves()) {
+      Terms terms = context.reader().terms(IndexField.ID.name);
+      if (terms == null) {
+        continue;
+      }
+      // Only the full-precision terms; there is exactly one per document.
+      TermsEnum termsEnum = NumericUtils.filterPrefixCodedInts(terms.iterator(null));
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        int id = NumericUtils.prefixCodedToInt(term);
+        docs = termsEnum.docs(context.reader().getLiveDocs(), docs, DocsEnum.FLAG_NONE);
+        int doc;
+        while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          map.put(id, context.docBase + doc);
+        }
+      }
+    }
+
+    return map;
+  }
+
+  /**
+   * Returns the docid of an article, or -1 if it isn't in the index.
+   */
+  public int get(int id) {
+    for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+      int docid = table.get(2 * slot + 1);
+      if (docid == 0) {
+        return -1;
+      }
+      if (table.get(2 * slot) == id) {
+        return docid - 1;
+      }
+    }
+  }
+
+  /**
+   * Returns the reader the map was built for.
+   */
+  public IndexReader getReader() {
+    return reader;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private void put(int id, int docid) {
+    for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+      if (table.get(2 * slot + 1) == 0) {
+        table.put(2 * slot, id);
+        table.put(2 * slot + 1, docid + 1);
+        size++;
+        return;
+      }
+      if (table.get(2 * slot) == id) {
+        // Duplicate article; keep the first copy, as a search on the id would.
+        return;
+      }
+    }
+  }
+
+  private static int hash(int id) {
+    // Ids are dense and sequential; spread them so neighbours don't cluster.
+    int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
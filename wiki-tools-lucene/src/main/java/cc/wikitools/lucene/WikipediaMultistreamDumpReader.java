@@ -0,0 +1,162 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reader for <code>pages-articles-multistream</code> Wikipedia dumps. These are a concatenation
+ * of independent bz2 streams of (up to) 100 pages each, so the file can be split at stream
+ * boundaries (see {@link Bz2StreamSplitter}) and the streams decompressed in parallel. Pages are
+ * handed out in no particular order.
+ */
+public class WikipediaMultistreamDumpReader {
+  private static final Logger LOG = Logger.getLogger(WikipediaMultistreamDumpReader.class);
+
+  /**
+   * Receives pages from the decompression threads; must be thread-safe.
+   */
+  public static interface PageHandler {
+    /**
+     * @return <code>false</code> to stop reading
+     */
+    boolean handle(String page) throws IOException, InterruptedException;
+  }
+
+  private final File file;
+  private final int threads;
+
+  public WikipediaMultistreamDumpReader(String path, int threads) {
+    Preconditions.checkNotNull(path);
+    Preconditions.checkArgument(threads > 0);
+
+    this.file = new File(path);
+    this.threads = threads;
+    Preconditions.checkArgument(file.exists(), path + " does not exist");
+  }
+
+  /**
+   * Reads every page in the dump, calling the handler from the decompression threads. Blocks
+   * until all pages have been handled or the handler asks to stop.
+   */
+  public void readAll(final PageHandler handler) throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("bunzip2-%d").build());
+    // Bounds the number of compressed streams waiting for a thread.
+    final Semaphore inflight = new Semaphore(2 * threads);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    Bz2StreamSplitter splitter =
+        new Bz2StreamSplitter(new BufferedInputStream(new FileInputStream(file)));
+    int cnt = 0;
+    try {
+      byte[] stream;
+      while ((stream = splitter.next()) != null) {
+        inflight.acquire();
+        if (failure.get() != null || stopped.get()) {
+          break;
+        }
+
+        final byte[] compressed = stream;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (String page : decompressPages(compressed)) {
+                if (!handler.handle(page)) {
+                  stopped.set(true);
+                  break;
+                }
+              }
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            } finally {
+              inflight.release();
+            }
+          }
+        });
+
+        cnt++;
+        if (cnt % 10000 == 0) {
+          LOG.info(cnt + " streams read");
+        }
+      }
+    } finally {
+      splitter.close();
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    if (failure.get() != null) {
+      throw new IOException("Error decompressing " + file, failure.get());
+    }
+  }
+
+  /**
+   * Decompresses one bz2 stream of a multistream dump and returns the pages in it. Streams
+   * don't split pages, so anything outside a &lt;page&gt; element (e.g., siteinfo) is skipped.
+   */
+  public static List<String> decompressPages(byte[] stream) throws IOException {
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+        new BZip2CompressorInputStream(new ByteArrayInputStream(stream), true), "UTF-8"));
+    List<String> pages = new ArrayList<String>();
+
+    try {
+      StringBuilder sb = null;
+      String s;
+      while ((s = br.readLine()) != null) {
+        if (sb == null) {
+          if (s.endsWith("<page>")) {
+            sb = new StringBuilder();
+            sb.append(s).append('\n');
+          }
+        } else {
+          sb.append(s).append('\n');
+          if (s.endsWith("</page>")) {
+            pages.add(sb.toString());
+            sb = null;
+          }
+        }
+      }
+    } finally {
+      br.close();
+    }
+
+    return pages;
+  }
+}
@@ -0,0 +1,34 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+/**
+ * A page from a Wikipedia XML dump as it moves through the {@link IndexingPipeline}. The raw
+ * XML is filled in by the reader; id, revision and title are parsed once by the filter stage and the
+ * cleaned text is filled in by the clean stage.
+ */
+class WikipediaPage {
+  String page;
+  int id;
+  long revision;
+  String title;
+  String text;
+
+  WikipediaPage(String page) {
+    this.page = page;
+  }
+}
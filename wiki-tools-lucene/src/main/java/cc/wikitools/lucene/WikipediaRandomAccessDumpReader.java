@@ -0,0 +1,244 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+import org.wikiclean.WikiClean;
+import org.wikiclean.WikiCleanBuilder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Random access to the pages of a <code>pages-articles-multistream</code> dump through its
+ * companion <code>multistream-index.txt.bz2</code>. Each line of the index has the form
+ * <code>offset:id:title</code>, where offset is the start of the bz2 stream holding the page.
+ * A lookup seeks to that stream and decompresses only it.
+ *
+ * The offset table is kept compact: pages are dumped in id order, so only the first page id
+ * of each stream is needed to find the stream holding a given id. Titles are optional and are
+ * kept as 32-bit hashes packed together with the stream number; hash collisions only cost an
+ * extra stream to decompress.
+ */
+public class WikipediaRandomAccessDumpReader {
+  private static final Logger LOG = Logger.getLogger(WikipediaRandomAccessDumpReader.class);
+
+  private final RandomAccessFile dump;
+  private final long dumpLength;
+  private final WikiClean cleaner = new WikiCleanBuilder().build();
+
+  // Start of each stream in the dump, and the id of the first page in it.
+  private long[] offsets = new long[1024];
+  private int[] firstIds = new int[1024];
+  private int numStreams = 0;
+  private int numPages = 0;
+
+  // Sorted (title hash << 32 | stream) entries, if titles were loaded.
+  private long[] titles;
+
+  public WikipediaRandomAccessDumpReader(String dumpPath, String indexPath, boolean loadTitles)
+      throws IOException {
+    Preconditions.checkNotNull(dumpPath);
+    Preconditions.checkNotNull(indexPath);
+    Preconditions.checkArgument(new File(dumpPath).exists(), dumpPath + " does not exist");
+    Preconditions.checkArgument(new File(indexPath).exists(), indexPath + " does not exist");
+
+    dump = new RandomAccessFile(dumpPath, "r");
+    dumpLength = dump.length();
+
+    long startTime = System.currentTimeMillis();
+    try {
+      loadIndex(indexPath, loadTitles);
+    } catch (IOException e) {
+      dump.close();
+      throw e;
+    }
+    LOG.info("Loaded offsets of " + numPages + " pages in " + numStreams + " streams in "
+        + (System.currentTimeMillis() - startTime) + "ms");
+  }
+
+  private void loadIndex(String indexPath, boolean loadTitles) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(indexPath));
+    if (indexPath.endsWith(".bz2")) {
+      in = new BZip2CompressorInputStream(in, true);
+    }
+    BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+    long[] titleEntries = loadTitles ? new long[1024] : null;
+    int lastId = -1;
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+        int i = line.indexOf(':');
+        int j = line.indexOf(':', i + 1);
+        if (i < 0 || j < 0) {
+          throw new IOException("Malformed index line: " + line);
+        }
+        long offset = Long.parseLong(line.substring(0, i));
+        int id = Integer.parseInt(line.substring(i + 1, j));
+
+        if (id <= lastId) {
+          throw new IOException("Index is not sorted by page id at: " + line);
+        }
+        lastId = id;
+
+        if (numStreams == 0 || offsets[numStreams - 1] != offset) {
+          if (numStreams == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * numStreams);
+            firstIds = Arrays.copyOf(firstIds, 2 * numStreams);
+          }
+          offsets[numStreams] = offset;
+          firstIds[numStreams] = id;
+          numStreams++;
+        }
+
+        if (titleEntries != null) {
+          if (numPages == titleEntries.length) {
+            titleEntries = Arrays.copyOf(titleEntries, 2 * numPages);
+          }
+          titleEntries[numPages] = titleEntry(line.substring(j + 1).hashCode(), numStreams - 1);
+        }
+        numPages++;
+      }
+    } finally {
+      br.close();
+    }
+
+    offsets = Arrays.copyOf(offsets, numStreams);
+    firstIds = Arrays.copyOf(firstIds, numStreams);
+    if (titleEntries != null) {
+      titles = Arrays.copyOf(titleEntries, numPages);
+      Arrays.sort(titles);
+    }
+  }
+
+  private static long titleEntry(int hash, int stream) {
+    return ((long) hash << 32) | stream;
+  }
+
+  public int getNumStreams() {
+    return numStreams;
+  }
+
+  public int getNumPages() {
+    return numPages;
+  }
+
+  /**
+   * Returns the raw XML of the page with the given id, or <code>null</code> if there isn't one.
+   */
+  public String getPage(int id) throws IOException {
+    List<String> pages = getPages(Arrays.asList(id));
+    return pages.isEmpty() ? null : pages.get(0);
+  }
+
+  /**
+   * Returns the raw XML of the page with the given title, or <code>null</code> if there isn't
+   * one. Requires titles to have been loaded.
+   */
+  public String getPage(String title) throws IOException {
+    List<String> pages = getPagesByTitle(Arrays.asList(title));
+    return pages.isEmpty() ? null : pages.get(0);
+  }
+
+  /**
+   * Returns the raw XML of the pages with the given ids, decompressing each stream once. Ids
+   * not in the dump are skipped; pages are returned in dump order.
+   */
+  public List<String> getPages(Collection<Integer> ids) throws IOException {
+    SortedSet<Integer> streams = new TreeSet<Integer>();
+    for (int id : ids) {
+      int stream = streamOf(id);
+      if (stream >= 0) {
+        streams.add(stream);
+      }
+    }
+
+    List<String> pages = new ArrayList<String>();
+    for (int stream : streams) {
+      for (String page : readStream(stream)) {
+        if (ids.contains(Integer.parseInt(cleaner.getId(page)))) {
+          pages.add(page);
+        }
+      }
+    }
+    return pages;
+  }
+
+  /**
+   * Returns the raw XML of the pages with the given titles, decompressing each stream once.
+   * Titles not in the dump are skipped; pages are returned in dump order. Requires titles to
+   * have been loaded.
+   */
+  public List<String> getPagesByTitle(Collection<String> titleSet) throws IOException {
+    Preconditions.checkState(titles != null, "titles were not loaded");
+
+    SortedSet<Integer> streams = new TreeSet<Integer>();
+    for (String title : titleSet) {
+      int hash = title.hashCode();
+      int i = Arrays.binarySearch(titles, titleEntry(hash, 0));
+      for (i = i < 0 ? -i - 1 : i; i < titles.length && (int) (titles[i] >> 32) == hash; i++) {
+        streams.add((int) titles[i]);
+      }
+    }
+
+    List<String> pages = new ArrayList<String>();
+    for (int stream : streams) {
+      for (String page : readStream(stream)) {
+        if (titleSet.contains(cleaner.getTitle(page))) {
+          pages.add(page);
+        }
+      }
+    }
+    return pages;
+  }
+
+  private int streamOf(int id) {
+    int i = Arrays.binarySearch(firstIds, id);
+    return i >= 0 ? i : -i - 2;
+  }
+
+  private synchronized List<String> readStream(int stream) throws IOException {
+    long start = offsets[stream];
+    long end = stream + 1 < numStreams ? offsets[stream + 1] : dumpLength;
+
+    byte[] compressed = new byte[(int) (end - start)];
+    dump.seek(start);
+    dump.readFully(compressed);
+
+    return WikipediaMultistreamDumpReader.decompressPages(compressed);
+  }
+
+  public void close() throws IOException {
+    dump.close();
+  }
+}
@@ -0,0 +1,338 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Logger;
+import org.apache.lucene.search.TopDocs;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps an index open and answers queries over HTTP, so that repeated lookups don't each pay for
+ * starting a JVM and opening the index. Each endpoint takes the options of the corresponding
+ * command-line tool as query parameters and responds with what the tool would print, as UTF-8
+ * plain text:
+ *
+ * <ul>
+ * <li><code>/search?q=...[&amp;num_results=n][&amp;title][&amp;verbose]</code>, as
+ * {@link SearchWikipedia}</li>
+ * <li><code>/fetch?id=...</code> or <code>/fetch?title=...</code>, as
+ * {@link FetchWikipediaArticle}</li>
+ * <li><code>/id?title=...</code>, as {@link FindWikipediaArticleId}</li>
+ * <li><code>/score?q=...&amp;id=...[&amp;explain]</code> or <code>title=...</code>, as
+ * {@link ScoreWikipediaArticle}</li>
+ * <li><code>/stats[?reset]</code>, the latencies of the searcher by operation and phase, and
+ * the hits, misses and evictions of its result cache (see {@link SearchStats}), cleared after
+ * printing with <code>reset</code></li>
+ * </ul>
+ *
+ * Errors are answered with a 4xx or 5xx status and a message. Parameters an endpoint doesn't
+ * support, such as the batch options of {@link SearchWikipedia}, are rejected with a 400 rather
+ * than ignored. {@link Launcher} has a client mode
+ * that turns tool invocations into requests. The server only listens on the loopback interface.
+ */
+public class WikipediaSearchServer {
+  private static final Logger LOG = Logger.getLogger(WikipediaSearchServer.class);
+
+  public static final int DEFAULT_PORT = 8099;
+  private static final int DEFAULT_NUM_RESULTS = 10;
+
+  private static final String INDEX_OPTION = "index";
+  private static final String PORT_OPTION = "port";
+  private static final String THREADS_OPTION = "threads";
+  private static final String SEARCH_THREADS_OPTION = "search_threads";
+  private static final String CACHE_OPTION = "cache";
+
+  // The parameters each endpoint takes.
+  static final Map<String, Set<String>> PARAMETERS = ImmutableMap.<String, Set<String>>of(
+      "/search", ImmutableSet.of("q", "num_results", "title", "article", "verbose"),
+      "/fetch", ImmutableSet.of("id", "title"),
+      "/id", ImmutableSet.of("title"),
+      "/score", ImmutableSet.of("q", "id", "title", "explain"),
+      "/stats", ImmutableSet.of("reset"));
+
+  private final WikipediaSearcher searcher;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  public WikipediaSearchServer(WikipediaSearcher searcher, int port, int threads)
+      throws IOException {
+    this.searcher = searcher;
+    this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    this.executor = Executors.newFixedThreadPool(threads);
+    server.createContext("/", new Handler());
+    server.setExecutor(executor);
+  }
+
+  public void start() {
+    // Loads the id map and the field caches, so the first requests aren't slow.
+    searcher.getArticleId("");
+    searcher.getArticle(0);
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private class Handler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(bytes, false, "UTF-8");
+      int status;
+      try {
+        status = respond(exchange.getRequestURI().getPath(),
+            parseQuery(exchange.getRequestURI().getRawQuery()), out);
+      } catch (IllegalArgumentException e) {
+        out.println(e.getMessage());
+        status = 400;
+      } catch (Exception e) {
+        LOG.error("Error handling " + exchange.getRequestURI(), e);
+        out.println("Error: " + e);
+        status = 500;
+      }
+      out.flush();
+
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+      exchange.sendResponseHeaders(status, bytes.size());
+      OutputStream body = exchange.getResponseBody();
+      bytes.writeTo(body);
+      body.close();
+    }
+  }
+
+  private int respond(String path, Map<String, String> params, PrintStream out) {
+    Set<String> supported = PARAMETERS.get(path);
+    if (supported == null) {
+      out.println("Error: unknown path " + path);
+      return 404;
+    }
+    for (String name : params.keySet()) {
+      if (!supported.contains(name)) {
+        throw new IllegalArgumentException(
+            "Error: parameter \"" + name + "\" is not supported by " + path);
+      }
+    }
+
+    if (path.equals("/search")) {
+      String q = required(params, "q");
+      int numResults = params.containsKey("num_results") ?
+          Integer.parseInt(params.get("num_results")) : DEFAULT_NUM_RESULTS;
+      TopDocs rs = params.containsKey("title") ?
+          searcher.searchTitle(q, numResults) : searcher.searchArticle(q, numResults);
+      if (rs == null) {
+        out.println("Error: unable to parse query \"" + q + "\"");
+        return 400;
+      }
+
+      int i = 1;
+      for (SearchResult result : searcher.renderResults(rs)) {
+        out.println(String.format("%d. %s (wiki id = %d, lucene id = %d) %f", i,
+            result.title, result.id, result.docid, result.score));
+        if (params.containsKey("verbose")) {
+          out.println("# " + searcher.doc(result.docid).toString().replaceAll("[\\n\\r]+", " "));
+        }
+        i++;
+      }
+      return 200;
+    }
+
+    if (path.equals("/fetch")) {
+      String text;
+      if (params.containsKey("id")) {
+        int id = Integer.parseInt(params.get("id"));
+        text = searcher.getArticleText(id);
+        if (text == null) {
+          out.println("id " + id + " doesn't exist!");
+          return 404;
+        }
+      } else {
+        String title = required(params, "title");
+        text = searcher.getArticleText(title);
+        if (text == null) {
+          out.println("article \"" + title + "\" doesn't exist!");
+          return 404;
+        }
+      }
+      out.println(text);
+      return 200;
+    }
+
+    if (path.equals("/id")) {
+      String title = required(params, "title");
+      out.println(title + ": id = " + searcher.getArticleId(title));
+      return 200;
+    }
+
+    if (path.equals("/score")) {
+      String q = required(params, "q");
+      boolean explain = params.containsKey("explain");
+      if (params.containsKey("id")) {
+        int id = Integer.parseInt(params.get("id"));
+        if (explain) {
+          out.println(searcher.explainArticle(q, id));
+        }
+        out.println("score: " + searcher.scoreArticle(q, id));
+      } else {
+        String title = required(params, "title");
+        if (explain) {
+          out.println(searcher.explainArticle(q, title));
+        }
+        out.println("score: " + searcher.scoreArticle(q, title));
+      }
+      return 200;
+    }
+
+    if (path.equals("/stats")) {
+      out.print(searcher.getStats().report());
+      if (params.containsKey("reset")) {
+        searcher.getStats().reset();
+      }
+      return 200;
+    }
+
+    out.println("Error: unknown path " + path);
+    return 404;
+  }
+
+  private static String required(Map<String, String> params, String name) {
+    String value = params.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException("Error: missing parameter \"" + name + "\"");
+    }
+    return value;
+  }
+
+  private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+    Map<String, String> params = Maps.newHashMap();
+    if (query == null) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      if (param.isEmpty()) {
+        continue;
+      }
+      int eq = param.indexOf('=');
+      if (eq == -1) {
+        params.put(URLDecoder.decode(param, "UTF-8"), "");
+      } else {
+        params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+            URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  @SuppressWarnings("static-access")
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption(OptionBuilder.withArgName("path").hasArg()
+        .withDescription("index location").create(INDEX_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("port to listen on (default: " + DEFAULT_PORT + ")").create(PORT_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of threads to answer requests with (default: number of cores)")
+        .create(THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("number of threads to search index segments in parallel (default: 0, serial)")
+        .create(SEARCH_THREADS_OPTION));
+    options.addOption(OptionBuilder.withArgName("num").hasArg()
+        .withDescription("cache results of up to this many queries").create(CACHE_OPTION));
+
+    CommandLine cmdline = null;
+    CommandLineParser parser = new GnuParser();
+    try {
+      cmdline = parser.parse(options, args);
+    } catch (ParseException exp) {
+      System.err.println("Error parsing command line: " + exp.getMessage());
+      System.exit(-1);
+    }
+
+    if (!cmdline.hasOption(INDEX_OPTION)) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(WikipediaSearchServer.class.getName(), options);
+      System.exit(-1);
+    }
+
+    File indexLocation = new File(cmdline.getOptionValue(INDEX_OPTION));
+    if (!indexLocation.exists()) {
+      System.err.println("Error: " + indexLocation + " does not exist!");
+      System.exit(-1);
+    }
+
+    int port = cmdline.hasOption(PORT_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(PORT_OPTION)) : DEFAULT_PORT;
+    int threads = cmdline.hasOption(THREADS_OPTION) ?
+        Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION))
+        : Runtime.getRuntime().availableProcessors();
+
+    final WikipediaSearcher searcher = new WikipediaSearcher(indexLocation);
+    if (cmdline.hasOption(SEARCH_THREADS_OPTION)) {
+      searcher.setSearchThreads(Integer.parseInt(cmdline.getOptionValue(SEARCH_THREADS_OPTION)));
+    }
+    if (cmdline.hasOption(CACHE_OPTION)) {
+      searcher.setResultCache(
+          ResultCache.withMaxEntries(Long.parseLong(cmdline.getOptionValue(CACHE_OPTION))));
+    }
+
+    // The latencies are also published over JMX.
+    searcher.getStats().register(indexLocation.getPath());
+
+    final WikipediaSearchServer server = new WikipediaSearchServer(searcher, port, threads);
+    server.start();
+    LOG.info("Serving " + indexLocation + " on localhost:" + server.getPort());
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        server.stop();
+        searcher.close();
+      }
+    });
+  }
+}
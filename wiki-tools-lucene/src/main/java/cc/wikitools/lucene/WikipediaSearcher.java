@@ -18,30 +18,128 @@ package cc.wikitools.lucene;
 
 import java.io.File;
 import java.io.IOException;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager.RefreshListener;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 
 import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+import cc.wikitools.lucene.SearchStats.Operation;
+import cc.wikitools.lucene.SearchStats.Phase;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Searches a Wikipedia index. A single instance can be shared by any number of threads: the
+ * reader and {@link IndexSearcher} are shared, and every thread gets its own query parsers.
+ *
+ * <p>A searcher can also be attached to a {@link SearcherManager} over an {@link IndexWriter}
+ * that is still indexing (see {@link #WikipediaSearcher(SearcherManager)}), in which case it
+ * moves to the manager's newest reader whenever the manager is refreshed. Lucene docids, as
+ * returned by the search methods, are then only good until the next refresh.</p>
+ *
+ * <p>The latency of every search, fetch and score is recorded, by phase, in the searcher's
+ * {@link SearchStats}.</p>
+ */
 public class WikipediaSearcher {
+  private static final Logger LOG = Logger.getLogger(WikipediaSearcher.class);
+
+  private static final Set<String> TITLE_FIELD = ImmutableSet.of(IndexField.TITLE.name);
+  private static final Set<String> TEXT_FIELD = ImmutableSet.of(IndexField.TEXT.name);
+  private static final Set<String> ID_FIELD = ImmutableSet.of(IndexField.ID.name);
+  private static final Set<String> ID_AND_TITLE_FIELDS =
+      ImmutableSet.of(IndexField.ID.name, IndexField.TITLE.name);
+  // Snippets are taken from this many characters at the start of an article.
+  private static final int SNIPPET_MAX_LENGTH = Highlighter.DEFAULT_MAX_CHARS_TO_ANALYZE;
+  // Length of the snippet of an article the query doesn't match, when re-analyzing.
+  private static final int SNIPPET_FRAGMENT_SIZE = 100;
+
   protected IndexReader reader;
   protected IndexSearcher searcher;
-  private QueryParser parserArticle;
-  private QueryParser parserTitle;
+  protected RedirectTable redirects;
+  // QueryParser isn't thread-safe, and is cheap enough to keep one per thread.
+  private final ThreadLocal<QueryParser> parserArticle = newParser(IndexField.TEXT);
+  private final ThreadLocal<QueryParser> parserTitle = newParser(IndexField.TITLE);
+  private volatile WikipediaIdMap idMap;
+  private volatile ResultCache cache;
+  private ExecutorService searchExecutor;
+  private volatile ExecutorService batchExecutor;
+  // Held for reading by every lookup on a searcher that follows a SearcherManager, so that a
+  // refresh can't close a reader that's in use. Static indexes never change reader and skip it.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private SearcherManager manager;
+  private RefreshListener refreshListener;
+  private final SearchStats stats = new SearchStats();
+  private final PostingsHighlighter highlighter = new PostingsHighlighter(SNIPPET_MAX_LENGTH) {
+    // The text is stored compressed, so the default loading would see no text to highlight.
+    @Override
+    protected String[][] loadFieldValues(IndexSearcher searcher, String[] fields, int[] docids,
+        int maxLength) throws IOException {
+      String[][] values = new String[fields.length][docids.length];
+      for (int i = 0; i < fields.length; i++) {
+        Set<String> field = ImmutableSet.of(fields[i]);
+        for (int j = 0; j < docids.length; j++) {
+          String text = ArticleDocument.getText(searcher.doc(docids[j], field));
+          if (text == null) {
+            text = "";
+          }
+          values[i][j] = text.length() > maxLength ? text.substring(0, maxLength) : text;
+        }
+      }
+      return values;
+    }
+  };
 
   protected WikipediaSearcher() {}
 
@@ -49,139 +147,775 @@ public class WikipediaSearcher {
     Preconditions.checkNotNull(indexLocation);
     Preconditions.checkArgument(indexLocation.exists());
 
-    reader = DirectoryReader.open(FSDirectory.open(indexLocation));
+    File[] shards = IndexWikipediaDump.getShards(indexLocation);
+    if (shards.length > 0) {
+      // A sharded index built by IndexWikipediaDump -shards; search across all shards.
+      IndexReader[] readers = new IndexReader[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        readers[i] = DirectoryReader.open(FSDirectory.open(shards[i]));
+      }
+      reader = new MultiReader(readers, true);
+    } else {
+      reader = DirectoryReader.open(FSDirectory.open(indexLocation));
+    }
+
+    Directory dir = FSDirectory.open(indexLocation);
+    redirects = RedirectTable.open(dir);
+    dir.close();
 
     init();
   }
 
+  /**
+   * Creates a searcher that follows the readers of a near-real-time {@link SearcherManager},
+   * typically one over an {@link IndexWriter} that is still adding articles. The searcher moves
+   * to the newest reader every time the manager is refreshed, so articles become searchable as
+   * soon as the manager sees them; refreshing the manager is up to the caller. Indexes under
+   * construction don't have a redirect table yet, so redirects aren't resolved.
+   */
+  public WikipediaSearcher(SearcherManager manager) throws IOException {
+    Preconditions.checkNotNull(manager);
+    this.manager = manager;
+    this.refreshListener = new RefreshListener() {
+      @Override
+      public void beforeRefresh() {}
+
+      @Override
+      public void afterRefresh(boolean didRefresh) throws IOException {
+        if (didRefresh) {
+          refresh();
+        }
+      }
+    };
+    manager.addListener(refreshListener);
+    refresh();
+  }
+
+  /**
+   * Switches to the manager's current reader, if it's newer than the one in use. Waits for
+   * lookups on the old reader to finish before releasing it.
+   */
+  private void refresh() throws IOException {
+    IndexSearcher current = manager.acquire();
+    try {
+      IndexReader newReader = current.getIndexReader();
+      IndexReader oldReader;
+      lock.writeLock().lock();
+      try {
+        if (newReader == reader) {
+          return;
+        }
+        newReader.incRef();
+        oldReader = reader;
+        reader = newReader;
+        init();
+      } finally {
+        lock.writeLock().unlock();
+      }
+      if (oldReader != null) {
+        oldReader.decRef();
+      }
+    } finally {
+      manager.release(current);
+    }
+  }
+
+  private void lockReader() {
+    if (manager != null) {
+      lock.readLock().lock();
+    }
+  }
+
+  private void unlockReader() {
+    if (manager != null) {
+      lock.readLock().unlock();
+    }
+  }
+
   protected void init() {
-    searcher = new IndexSearcher(reader);
+    searcher = newIndexSearcher();
+  }
+
+  private IndexSearcher newIndexSearcher() {
+    IndexSearcher searcher = searchExecutor == null ?
+        new IndexSearcher(reader) : new IndexSearcher(reader, searchExecutor);
     searcher.setSimilarity(new LMDirichletSimilarity(2500.0f));
+    return searcher;
+  }
+
+  /**
+   * Searches the segments of the index in parallel on a pool of <code>threads</code> threads and
+   * merges their top hits, instead of searching them one after another on the calling thread.
+   * This cuts the latency of single queries on indexes with many segments (or shards), at the
+   * cost of some throughput under load. Zero, the default, searches serially. Call before the
+   * searcher is shared with other threads.
+   */
+  public synchronized void setSearchThreads(int threads) {
+    Preconditions.checkArgument(threads >= 0);
+    if (searchExecutor != null) {
+      searchExecutor.shutdown();
+      searchExecutor = null;
+    }
+    if (threads > 0) {
+      searchExecutor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat("search-%d").setDaemon(true).build());
+    }
+    searcher = newIndexSearcher();
+  }
+
+  /**
+   * Runs the queries of {@link #searchArticles(List, int)} and {@link #searchTitles(List, int)}
+   * on a pool of <code>threads</code> threads. Zero, the default, runs them one after another on
+   * the calling thread.
+   */
+  public synchronized void setBatchThreads(int threads) {
+    Preconditions.checkArgument(threads >= 0);
+    if (batchExecutor != null) {
+      batchExecutor.shutdown();
+      batchExecutor = null;
+    }
+    if (threads > 0) {
+      batchExecutor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat("batch-%d").setDaemon(true).build());
+    }
+  }
 
-    parserArticle = new QueryParser(Version.LUCENE_43, IndexField.TEXT.name, IndexWikipediaDump.ANALYZER);
-    parserTitle = new QueryParser(Version.LUCENE_43, IndexField.TITLE.name, IndexWikipediaDump.ANALYZER);
+  /**
+   * Returns the latencies of the operations of this searcher.
+   */
+  public SearchStats getStats() {
+    return stats;
   }
 
+  /**
+   * Returns the reader in use. For a searcher attached to a {@link SearcherManager}, the reader
+   * may be closed once the manager is refreshed.
+   */
+  public IndexReader getIndexReader() {
+    return reader;
+  }
+
+  private static ThreadLocal<QueryParser> newParser(final IndexField field) {
+    return new ThreadLocal<QueryParser>() {
+      @Override
+      protected QueryParser initialValue() {
+        return new QueryParser(Version.LUCENE_43, field.name, IndexWikipediaDump.ANALYZER);
+      }
+    };
+  }
+
+  /**
+   * Scores an article against a query, or returns zero if the article doesn't match or isn't in
+   * the index. Use {@link #explainArticle(String, int)} to see how the score is computed.
+   */
   public float scoreArticle(String q, int wikiId) {
+    long start = System.nanoTime();
+    lockReader();
     try {
-      int internalId = internalIdFromWikipediaId(wikiId);
-      if (internalId == -1) return 0.0f;
-      Query query = parserArticle.parse(q);
-      Explanation explanation = searcher.explain(query, internalId);
-      System.out.println(explanation);
-      return explanation.getValue();
+      return score(q, internalIdFromWikipediaId(wikiId));
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+      return 0.0f;
     } catch (Exception e) {
       e.printStackTrace();
       return 0.0f;
+    } finally {
+      unlockReader();
+      stats.time(Operation.SCORE, Phase.TOTAL, start);
     }
   }
 
   public float scoreArticle(String q, String title) {
+    long start = System.nanoTime();
+    lockReader();
     try {
-      int internalId = internalIdFromWikipediaTitle(title);
-      if (internalId == -1) return 0.0f;
-      Query query = parserArticle.parse(q);
-      Explanation explanation = searcher.explain(query, internalId);
-      System.out.println(explanation);
-      return explanation.getValue();
+      return score(q, internalIdFromWikipediaTitle(title));
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+      return 0.0f;
     } catch (Exception e) {
       e.printStackTrace();
       return 0.0f;
+    } finally {
+      unlockReader();
+      stats.time(Operation.SCORE, Phase.TOTAL, start);
     }
   }
 
-  public TopDocs searchArticle(String q, int numResults) {
+  /**
+   * Scores many articles against one query. Scores are in the order of <code>wikiIds</code>,
+   * with zero for articles that don't match or aren't in the index. The query is parsed and
+   * weighted once, and the articles are visited in index order, so each segment's postings are
+   * read in a single forward pass. Timed as one {@link Operation#SCORE} per call.
+   */
+  public float[] scoreArticles(String q, int[] wikiIds) {
+    long start = System.nanoTime();
+    float[] scores = new float[wikiIds.length];
+    lockReader();
+    try {
+      // Internal ids in the high half, positions in the low half, so sorting orders by docid.
+      long[] docs = new long[wikiIds.length];
+      int cnt = 0;
+      for (int i = 0; i < wikiIds.length; i++) {
+        int internalId = internalIdFromWikipediaId(wikiIds[i]);
+        if (internalId != -1) {
+          docs[cnt++] = ((long) internalId << 32) | i;
+        }
+      }
+      Arrays.sort(docs, 0, cnt);
+
+      long t = System.nanoTime();
+      Query query = parserArticle.get().parse(q);
+      t = stats.time(Operation.SCORE, Phase.PARSE, t);
+      query = searcher.rewrite(query);
+      t = stats.time(Operation.SCORE, Phase.REWRITE, t);
+      Weight weight = searcher.createNormalizedWeight(query);
+      List<AtomicReaderContext> leaves = reader.leaves();
+      AtomicReaderContext leaf = null;
+      Scorer scorer = null;
+      for (int i = 0; i < cnt; i++) {
+        int internalId = (int) (docs[i] >>> 32);
+        if (leaf == null || internalId >= leaf.docBase + leaf.reader().maxDoc()) {
+          leaf = leaves.get(ReaderUtil.subIndex(internalId, leaves));
+          scorer = weight.scorer(leaf, true, false, leaf.reader().getLiveDocs());
+        }
+        if (scorer == null) {
+          continue;
+        }
+        int doc = internalId - leaf.docBase;
+        int cur = scorer.docID();
+        if (cur < doc) {
+          cur = scorer.advance(doc);
+        }
+        if (cur == doc) {
+          scores[(int) docs[i]] = scorer.score();
+        }
+      }
+      stats.time(Operation.SCORE, Phase.SEARCH, t);
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+    } catch (Exception e) {
+      e.printStackTrace();
+    } finally {
+      unlockReader();
+      stats.time(Operation.SCORE, Phase.TOTAL, start);
+    }
+    return scores;
+  }
+
+  /**
+   * Returns an explanation of how an article is scored against a query. Much more expensive than
+   * {@link #scoreArticle(String, int)}.
+   */
+  public Explanation explainArticle(String q, int wikiId) {
+    lockReader();
     try {
-      Query query = parserArticle.parse(q);
-      return searcher.search(query, numResults);
+      return explain(q, internalIdFromWikipediaId(wikiId));
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+      return null;
     } catch (Exception e) {
       e.printStackTrace();
       return null;
+    } finally {
+      unlockReader();
     }
   }
 
+  public Explanation explainArticle(String q, String title) {
+    lockReader();
+    try {
+      return explain(q, internalIdFromWikipediaTitle(title));
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+      return null;
+    } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      unlockReader();
+    }
+  }
+
+  // Bad queries are expected in bulk runs, so they get a line rather than a stack trace.
+  private static void warnUnparsable(String q, ParseException e) {
+    String message = e.getMessage();
+    if (message.indexOf('\n') != -1) {
+      message = message.substring(0, message.indexOf('\n'));
+    }
+    LOG.warn("Unable to parse query \"" + q + "\": " + message);
+  }
+
+  private float score(String q, int internalId) throws Exception {
+    if (internalId == -1) return 0.0f;
+    long start = System.nanoTime();
+    Query query = parserArticle.get().parse(q);
+    start = stats.time(Operation.SCORE, Phase.PARSE, start);
+    query = searcher.rewrite(query);
+    start = stats.time(Operation.SCORE, Phase.REWRITE, start);
+    try {
+      Weight weight = searcher.createNormalizedWeight(query);
+      List<AtomicReaderContext> leaves = reader.leaves();
+      AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(internalId, leaves));
+      Scorer scorer = weight.scorer(leaf, true, false, leaf.reader().getLiveDocs());
+      int doc = internalId - leaf.docBase;
+      if (scorer == null || scorer.advance(doc) != doc) {
+        return 0.0f;
+      }
+      return scorer.score();
+    } finally {
+      stats.time(Operation.SCORE, Phase.SEARCH, start);
+    }
+  }
+
+  private Explanation explain(String q, int internalId) throws Exception {
+    if (internalId == -1) return null;
+    return searcher.explain(parserArticle.get().parse(q), internalId);
+  }
+
+  /**
+   * Caches the results of {@link #searchArticle(String, int)} and {@link #searchTitle(String, int)},
+   * or stops caching if <code>cache</code> is <code>null</code>.
+   */
+  public void setResultCache(ResultCache cache) {
+    this.cache = cache;
+    stats.setResultCache(cache);
+  }
+
+  public ResultCache getResultCache() {
+    return cache;
+  }
+
+  public TopDocs searchArticle(String q, int numResults) {
+    return search(parserArticle.get(), Operation.SEARCH_ARTICLE, q, numResults);
+  }
+
   public TopDocs searchTitle(String q, int numResults) {
+    return search(parserTitle.get(), Operation.SEARCH_TITLE, q, numResults);
+  }
+
+  /**
+   * Searches articles for a batch of queries. Results are in the order of the queries, with
+   * <code>null</code> for queries that fail to parse.
+   */
+  public List<TopDocs> searchArticles(List<String> queries, int numResults) {
+    return search(queries, numResults, false);
+  }
+
+  /**
+   * Searches titles for a batch of queries. Results are in the order of the queries, with
+   * <code>null</code> for queries that fail to parse.
+   */
+  public List<TopDocs> searchTitles(List<String> queries, int numResults) {
+    return search(queries, numResults, true);
+  }
+
+  private List<TopDocs> search(List<String> queries, final int numResults, final boolean title) {
+    List<TopDocs> results = new ArrayList<TopDocs>(queries.size());
+    ExecutorService executor = batchExecutor;
+    if (executor == null) {
+      for (String q : queries) {
+        results.add(title ? searchTitle(q, numResults) : searchArticle(q, numResults));
+      }
+      return results;
+    }
+
+    List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(queries.size());
+    for (final String q : queries) {
+      futures.add(executor.submit(new Callable<TopDocs>() {
+        @Override
+        public TopDocs call() {
+          return title ? searchTitle(q, numResults) : searchArticle(q, numResults);
+        }
+      }));
+    }
     try {
-      Query query = parserTitle.parse(q);
-      return searcher.search(query, numResults);
+      for (Future<TopDocs> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return results;
+  }
+
+  private TopDocs search(QueryParser parser, Operation op, String q, int numResults) {
+    long start = System.nanoTime();
+    ResultCache cache = this.cache;
+    String field = parser.getField();
+    lockReader();
+    try {
+      if (cache != null) {
+        TopDocs rs = cache.get(reader, field, q, numResults);
+        if (rs != null) {
+          return rs;
+        }
+      }
+
+      long t = System.nanoTime();
+      Query query = parser.parse(q);
+      t = stats.time(op, Phase.PARSE, t);
+      // The searcher would rewrite the query anyway; rewriting a rewritten query is free.
+      query = searcher.rewrite(query);
+      t = stats.time(op, Phase.REWRITE, t);
+      TopDocs rs = searcher.search(query, numResults);
+      stats.time(op, Phase.SEARCH, t);
+      if (cache != null) {
+        cache.put(reader, field, q, numResults, rs);
+      }
+      return rs;
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+      return null;
     } catch (Exception e) {
       e.printStackTrace();
       return null;
+    } finally {
+      unlockReader();
+      stats.time(op, Phase.TOTAL, start);
     }
   }
 
+  /**
+   * Returns a document with all its stored fields loaded, including the article text. Use
+   * {@link #doc(int, Set)} to load just the id and title.
+   */
   public Document doc(int docid) {
+    lockReader();
     try {
-      return searcher.doc(docid);
+      return withText(searcher.doc(docid));
     } catch (IOException e) {
       e.printStackTrace();
       return null;
+    } finally {
+      unlockReader();
     }
   }
 
-  public int getArticleId(String s) {
+  /**
+   * Returns a document with only the given stored fields loaded.
+   */
+  public Document doc(int docid, Set<String> fields) {
+    lockReader();
     try {
-      Query query = parserTitle.parse("\"" + s + "\"");
-      TopDocs rs = searcher.search(query, 10);
+      return withText(searcher.doc(docid, fields));
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      unlockReader();
+    }
+  }
 
-      for (ScoreDoc scoreDoc : rs.scoreDocs) {
-        Document hit = searcher.doc(scoreDoc.doc);
-        if (s.equals(hit.getField(IndexField.TITLE.name).stringValue())) {
-          return (Integer) hit.getField(IndexField.ID.name).numericValue();
+  /**
+   * Returns the id and title of every hit, in rank order, without loading stored fields. Ids and
+   * titles are read from doc values, visiting the hits in docid order so each segment is read
+   * once. Articles indexed before ids and titles had doc values are loaded from stored fields
+   * instead. The hits must come from this searcher's current reader. Returns an empty list for
+   * <code>null</code>, the results of a query that failed to parse.
+   */
+  public List<SearchResult> renderResults(TopDocs rs) {
+    if (rs == null) {
+      return Collections.emptyList();
+    }
+    ScoreDoc[] hits = rs.scoreDocs;
+    // Docids in the high half, ranks in the low half, so sorting orders by docid.
+    long[] order = new long[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      order[i] = ((long) hits[i].doc << 32) | i;
+    }
+    Arrays.sort(order);
+
+    long start = System.nanoTime();
+    SearchResult[] results = new SearchResult[hits.length];
+    lockReader();
+    try {
+      List<AtomicReaderContext> leaves = reader.leaves();
+      AtomicReaderContext leaf = null;
+      NumericDocValues ids = null;
+      BinaryDocValues titles = null;
+      BytesRef title = new BytesRef();
+      for (long o : order) {
+        int docid = (int) (o >>> 32);
+        int rank = (int) o;
+        if (leaf == null || docid >= leaf.docBase + leaf.reader().maxDoc()) {
+          leaf = leaves.get(ReaderUtil.subIndex(docid, leaves));
+          ids = leaf.reader().getNumericDocValues(IndexField.ID.name);
+          titles = leaf.reader().getBinaryDocValues(IndexField.TITLE.name);
+        }
+
+        title.length = 0;
+        if (titles != null) {
+          titles.get(docid - leaf.docBase, title);
+        }
+        // Old articles merged into a segment with new ones have empty titles.
+        if (ids != null && title.length > 0) {
+          results[rank] = new SearchResult(docid, (int) ids.get(docid - leaf.docBase),
+              title.utf8ToString(), hits[rank].score);
+        } else {
+          Document doc = searcher.doc(docid, ID_AND_TITLE_FIELDS);
+          results[rank] = new SearchResult(docid, Integer.parseInt(doc.get(IndexField.ID.name)),
+              doc.get(IndexField.TITLE.name), hits[rank].score);
         }
       }
+      return Arrays.asList(results);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      unlockReader();
+      stats.time(Operation.RENDER_RESULTS, Phase.TOTAL, start);
+    }
+  }
 
-      return -1;
+  /**
+   * Returns a snippet of the article text of every hit of an article search for <code>q</code>,
+   * in rank order: the <code>maxPassages</code> sentences that best match the query, with
+   * matching terms in <code>&lt;b&gt;</code> tags. Articles whose text doesn't match get their
+   * first sentences instead. If the text was indexed with offsets
+   * (<code>IndexWikipediaDump -offsets</code>), passages are found from the offsets stored in the
+   * postings, and the text is only loaded; otherwise it is analyzed again, which is much slower
+   * for long articles. The hits must come from this searcher's current reader.
+   */
+  public String[] getSnippets(String q, TopDocs rs, int maxPassages) {
+    return getSnippets(q, rs, maxPassages, false);
+  }
+
+  /**
+   * As {@link #getSnippets(String, TopDocs, int)}, but can be made to re-analyze the text even
+   * if the index has offsets, for comparison.
+   */
+  String[] getSnippets(String q, TopDocs rs, int maxPassages, boolean reanalyze) {
+    lockReader();
+    try {
+      Query query = searcher.rewrite(parserArticle.get().parse(q));
+      if (!reanalyze && hasOffsets(reader)) {
+        return highlighter.highlight(IndexField.TEXT.name, query, searcher, rs, maxPassages);
+      }
+
+      QueryScorer scorer = new QueryScorer(query, IndexField.TEXT.name);
+      Highlighter reanalyzer = new Highlighter(new SimpleHTMLFormatter("<b>", "</b>"), scorer);
+      reanalyzer.setTextFragmenter(new SimpleSpanFragmenter(scorer, SNIPPET_FRAGMENT_SIZE));
+      reanalyzer.setMaxDocCharsToAnalyze(SNIPPET_MAX_LENGTH);
+      String[] snippets = new String[rs.scoreDocs.length];
+      for (int i = 0; i < snippets.length; i++) {
+        String text = ArticleDocument.getText(searcher.doc(rs.scoreDocs[i].doc, TEXT_FIELD));
+        String[] fragments = reanalyzer.getBestFragments(IndexWikipediaDump.ANALYZER,
+            IndexField.TEXT.name, text, maxPassages);
+        snippets[i] = fragments.length > 0 ? Joiner.on("... ").join(fragments)
+            : text.substring(0, Math.min(text.length(), SNIPPET_FRAGMENT_SIZE));
+      }
+      return snippets;
+    } catch (ParseException e) {
+      warnUnparsable(q, e);
+      return null;
     } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      unlockReader();
+    }
+  }
+
+  /**
+   * Returns whether the text of every segment was indexed with offsets. Segments written without
+   * them lose offsets for everything merged into them.
+   */
+  static boolean hasOffsets(IndexReader reader) {
+    for (AtomicReaderContext leaf : reader.leaves()) {
+      FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(IndexField.TEXT.name);
+      if (info != null
+          && info.getIndexOptions() != IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getArticleId(String s) {
+    long start = System.nanoTime();
+    lockReader();
+    try {
+      long t = System.nanoTime();
+      int internalId = internalIdFromWikipediaTitle(s);
+      t = stats.time(Operation.ARTICLE_ID, Phase.SEARCH, t);
+      if (internalId == -1) {
+        return -1;
+      }
+
+      List<AtomicReaderContext> leaves = reader.leaves();
+      AtomicReaderContext context = leaves.get(ReaderUtil.subIndex(internalId, leaves));
+      NumericDocValues ids = context.reader().getNumericDocValues(IndexField.ID.name);
+      int id = ids == null ? 0 : (int) ids.get(internalId - context.docBase);
+      // Old articles have no id doc values, or 0 once merged into a segment with new ones.
+      if (id == 0) {
+        id = Integer.parseInt(searcher.doc(internalId, ID_FIELD).get(IndexField.ID.name));
+      }
+      stats.time(Operation.ARTICLE_ID, Phase.FETCH, t);
+      return id;
+    } catch (IOException e) {
       e.printStackTrace();
       return -1;
+    } finally {
+      unlockReader();
+      stats.time(Operation.ARTICLE_ID, Phase.TOTAL, start);
     }
   }
 
+  /**
+   * Returns an article with all its stored fields, including the text. Use
+   * {@link #getArticleText(int)} when only the text is needed.
+   */
   public Document getArticle(int id) {
+    long start = System.nanoTime();
+    lockReader();
     try {
-      Query query = NumericRangeQuery.newIntRange(IndexField.ID.name, id, id, true, true);
-      TopDocs rs = searcher.search(query, 1);
-
-      if (rs.totalHits == 0) {
+      long t = System.nanoTime();
+      int internalId = internalIdFromWikipediaId(id);
+      t = stats.time(Operation.FETCH_BY_ID, Phase.SEARCH, t);
+      if (internalId == -1) {
         return null;
       }
-      ScoreDoc scoreDoc = rs.scoreDocs[0];
-      Document hit = searcher.doc(scoreDoc.doc);
-
-      return hit;
+      Document doc = withText(searcher.doc(internalId));
+      stats.time(Operation.FETCH_BY_ID, Phase.FETCH, t);
+      return doc;
     } catch (IOException e) {
       e.printStackTrace();
       return null;
+    } finally {
+      unlockReader();
+      stats.time(Operation.FETCH_BY_ID, Phase.TOTAL, start);
     }
   }
 
   public Document getArticle(String s) {
+    long start = System.nanoTime();
+    lockReader();
     try {
-      Query query = parserTitle.parse("\"" + s + "\"");
-      TopDocs rs = searcher.search(query, 10);
-
-      for (ScoreDoc scoreDoc : rs.scoreDocs) {
-        Document hit = searcher.doc(scoreDoc.doc);
-        if (s.equals(hit.getField(IndexField.TITLE.name).stringValue())) {
-          return hit;
-        }
+      long t = System.nanoTime();
+      int internalId = internalIdFromWikipediaTitle(s);
+      t = stats.time(Operation.FETCH_BY_TITLE, Phase.SEARCH, t);
+      if (internalId == -1) {
+        return null;
       }
+      Document doc = withText(searcher.doc(internalId));
+      stats.time(Operation.FETCH_BY_TITLE, Phase.FETCH, t);
+      return doc;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      unlockReader();
+      stats.time(Operation.FETCH_BY_TITLE, Phase.TOTAL, start);
+    }
+  }
 
+  /**
+   * Returns the text of an article, or <code>null</code> if there's no article with the id.
+   */
+  public String getArticleText(int id) {
+    long start = System.nanoTime();
+    lockReader();
+    try {
+      long t = System.nanoTime();
+      int internalId = internalIdFromWikipediaId(id);
+      t = stats.time(Operation.FETCH_BY_ID, Phase.SEARCH, t);
+      if (internalId == -1) {
+        return null;
+      }
+      String text = ArticleDocument.getText(searcher.doc(internalId, TEXT_FIELD));
+      stats.time(Operation.FETCH_BY_ID, Phase.FETCH, t);
+      return text;
+    } catch (IOException e) {
+      e.printStackTrace();
       return null;
-    } catch (Exception e) {
+    } finally {
+      unlockReader();
+      stats.time(Operation.FETCH_BY_ID, Phase.TOTAL, start);
+    }
+  }
+
+  public String getArticleText(String title) {
+    long start = System.nanoTime();
+    lockReader();
+    try {
+      long t = System.nanoTime();
+      int internalId = internalIdFromWikipediaTitle(title);
+      t = stats.time(Operation.FETCH_BY_TITLE, Phase.SEARCH, t);
+      if (internalId == -1) {
+        return null;
+      }
+      String text = ArticleDocument.getText(searcher.doc(internalId, TEXT_FIELD));
+      stats.time(Operation.FETCH_BY_TITLE, Phase.FETCH, t);
+      return text;
+    } catch (IOException e) {
       e.printStackTrace();
       return null;
+    } finally {
+      unlockReader();
+      stats.time(Operation.FETCH_BY_TITLE, Phase.TOTAL, start);
+    }
+  }
+
+  /**
+   * Replaces the compressed text of a loaded article with the text itself, so that callers can
+   * read all fields as strings.
+   */
+  private static Document withText(Document doc) {
+    IndexableField field = doc.getField(IndexField.TEXT.name);
+    if (field != null && field.binaryValue() != null) {
+      String text = ArticleDocument.getText(doc);
+      doc.removeField(IndexField.TEXT.name);
+      doc.add(new StoredField(IndexField.TEXT.name, text));
     }
+    return doc;
   }
 
   private int internalIdFromWikipediaTitle(String s) {
     try {
-      Query query = parserTitle.parse("\"" + s + "\"");
+      BytesRef title = new BytesRef(s);
+      boolean complete = true;
+      for (AtomicReaderContext context : reader.leaves()) {
+        Terms terms = context.reader().terms(IndexField.TITLE_EXACT.name);
+        if (terms == null) {
+          complete = false;
+          continue;
+        }
+        TermsEnum termsEnum = terms.iterator(null);
+        if (termsEnum.seekExact(title, false)) {
+          DocsEnum docs = termsEnum.docs(context.reader().getLiveDocs(), null, DocsEnum.FLAG_NONE);
+          int doc = docs.nextDoc();
+          if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+            return context.docBase + doc;
+          }
+        }
+      }
+
+      // Segments written before exact titles were indexed have to be searched the slow way.
+      int internalId = complete ? -1 : internalIdFromWikipediaTitlePhrase(s);
+      if (internalId == -1 && redirects != null) {
+        int id = redirects.get(s);
+        if (id != -1) {
+          internalId = internalIdFromWikipediaId(id);
+        }
+      }
+      return internalId;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return -1;
+    }
+  }
+
+  private int internalIdFromWikipediaTitlePhrase(String s) {
+    try {
+      Query query = parserTitle.get().parse("\"" + s + "\"");
       TopDocs rs = searcher.search(query, 10);
 
       for (ScoreDoc scoreDoc : rs.scoreDocs) {
-        Document hit = searcher.doc(scoreDoc.doc);
+        Document hit = searcher.doc(scoreDoc.doc, TITLE_FIELD);
         if (s.equals(hit.getField(IndexField.TITLE.name).stringValue())) {
           return scoreDoc.doc;
         }
@@ -196,24 +930,50 @@ public class WikipediaSearcher {
 
   private int internalIdFromWikipediaId(int id) {
     try {
-      Query query = NumericRangeQuery.newIntRange(IndexField.ID.name, id, id, true, true);
-      TopDocs rs = searcher.search(query, 1);
-
-      if (rs.totalHits == 0) {
-        return -1;
-      }
-      ScoreDoc scoreDoc = rs.scoreDocs[0];
-
-      return scoreDoc.doc;
+      return getIdMap().get(id);
     } catch (IOException e) {
       e.printStackTrace();
       return -1;
     }
   }
 
+  /**
+   * Returns the wiki id to docid map of the current reader, rebuilding it if the reader changed.
+   */
+  protected WikipediaIdMap getIdMap() throws IOException {
+    WikipediaIdMap map = idMap;
+    if (map != null && map.getReader() == reader) {
+      return map;
+    }
+
+    synchronized (this) {
+      if (idMap == null || idMap.getReader() != reader) {
+        idMap = WikipediaIdMap.build(reader);
+      }
+      return idMap;
+    }
+  }
+
   public void close() {
+    if (searchExecutor != null) {
+      searchExecutor.shutdown();
+    }
+    if (batchExecutor != null) {
+      batchExecutor.shutdown();
+    }
     try {
-      reader.close();
+      if (manager != null) {
+        // The manager owns the reader; just give back the reference taken in refresh().
+        manager.removeListener(refreshListener);
+        lock.writeLock().lock();
+        try {
+          reader.decRef();
+        } finally {
+          lock.writeLock().unlock();
+        }
+      } else {
+        reader.close();
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -0,0 +1,151 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class Bz2StreamSplitterTest {
+
+  @Test
+  public void testSplitsAtStreamBoundaries() throws Exception {
+    List<byte[]> streams = streams();
+    Bz2StreamSplitter splitter = new Bz2StreamSplitter(new ByteArrayInputStream(concat(streams)));
+    long offset = 0;
+    for (byte[] stream : streams) {
+      assertEquals(offset, splitter.getPosition());
+      assertArrayEquals(stream, splitter.next());
+      assertEquals(offset, splitter.getOffset());
+      offset += stream.length;
+    }
+    assertNull(splitter.next());
+    splitter.close();
+  }
+
+  @Test
+  public void testSkipToStreamStart() throws Exception {
+    List<byte[]> streams = streams();
+    byte[] bytes = concat(streams);
+    long start = streams.get(0).length + 7;
+    long second = streams.get(0).length + streams.get(1).length;
+
+    // Starting inside a stream skips the rest of it, but reports offsets in the whole file.
+    Bz2StreamSplitter splitter = new Bz2StreamSplitter(
+        new ByteArrayInputStream(bytes, (int) start, bytes.length), start);
+    assertTrue(splitter.skipToStreamStart());
+    assertEquals(second, splitter.getPosition());
+    assertArrayEquals(streams.get(2), splitter.next());
+    assertEquals(second, splitter.getOffset());
+
+    // Starting at a stream doesn't skip it.
+    splitter = new Bz2StreamSplitter(
+        new ByteArrayInputStream(bytes, (int) second, bytes.length), second);
+    assertTrue(splitter.skipToStreamStart());
+    assertArrayEquals(streams.get(2), splitter.next());
+
+    // Starting inside the last stream finds nothing.
+    start = bytes.length - streams.get(streams.size() - 1).length + 1;
+    splitter = new Bz2StreamSplitter(
+        new ByteArrayInputStream(bytes, (int) start, bytes.length), start);
+    assertFalse(splitter.skipToStreamStart());
+    assertNull(splitter.next());
+  }
+
+  @Test
+  public void testRejectsHugeStreams() throws Exception {
+    // A single stream larger than any in a multistream dump: a plain bz2 file, say.
+    final byte[] header = stream("header");
+    InputStream in = new InputStream() {
+      private long pos = 0;
+
+      @Override
+      public int read() {
+        return pos < header.length ? header[(int) pos++] : 0;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        for (int i = 0; i < len; i++) {
+          b[off + i] = (byte) read();
+        }
+        return len;
+      }
+    };
+
+    Bz2StreamSplitter splitter = new Bz2StreamSplitter(in);
+    try {
+      splitter.next();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("not a multistream dump"));
+    }
+  }
+
+  /**
+   * Streams of various sizes, some larger than the splitter reads at once.
+   */
+  private static List<byte[]> streams() throws IOException {
+    Random random = new Random(5);
+    List<byte[]> streams = Lists.newArrayList();
+    for (int size : new int[] { 10, 200000, 1000, 100000, 50, 300000 }) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+      streams.add(stream(sb.toString()));
+    }
+    return streams;
+  }
+
+  static byte[] stream(String s) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(bytes);
+    out.write(s.getBytes(Charsets.UTF_8));
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  static byte[] concat(List<byte[]> streams) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (byte[] stream : streams) {
+      bytes.write(stream, 0, stream.length);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(Bz2StreamSplitterTest.class);
+  }
+}
@@ -0,0 +1,336 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+import org.wikiclean.WikiCleanBuilder;
+
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+import com.google.common.collect.Lists;
+
+public class IndexingPipelineTest {
+
+  @Test(timeout = 60000)
+  public void testEveryStageDrains() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    // Several workers per stage, and queues much shorter than the input, so that the end of
+    // input has to reach every worker through full queues.
+    pipeline.setQueueSize(2);
+    pipeline.setFilterThreads(3);
+    pipeline.setCleanThreads(2);
+    pipeline.setIndexThreads(4);
+    pipeline.setBatchSize(7);
+    pipeline.start();
+    int articles = 0;
+    for (int i = 1; i <= 500; i++) {
+      if (i % 5 == 0) {
+        pipeline.put(page(i, "Wikipedia:Article " + i, "not an article"));
+      } else if (i % 7 == 0) {
+        pipeline.put(page(i, "Article " + i, "#REDIRECT [[Article 1]]"));
+      } else {
+        assertTrue(pipeline.put(page(i, "Article " + i, "some text")));
+        articles++;
+      }
+    }
+    pipeline.finish();
+    writer.close();
+
+    assertEquals(500, pipeline.getReadPages());
+    assertEquals(500, pipeline.getFilterPages());
+    assertEquals(articles, pipeline.getCleanPages());
+    assertEquals(articles, pipeline.getIndexPages());
+    assertEquals(articles, pipeline.getIndexedCount());
+    DirectoryReader reader = DirectoryReader.open(dir);
+    assertEquals(articles, reader.numDocs());
+    reader.close();
+  }
+
+  @Test(timeout = 60000)
+  public void testStopsAtMaxDocs() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), 10);
+    pipeline.setQueueSize(2);
+    pipeline.start();
+    boolean accepted = true;
+    for (int i = 1; i <= 100 && accepted; i++) {
+      accepted = pipeline.put(page(i, "Article " + i, "some text"));
+    }
+    assertFalse(accepted);
+    assertTrue(pipeline.isFull());
+    // The end of input still gets through once the pipeline turns pages away.
+    pipeline.finish();
+    writer.close();
+
+    assertEquals(10, pipeline.getIndexedCount());
+    DirectoryReader reader = DirectoryReader.open(dir);
+    assertEquals(10, reader.numDocs());
+    reader.close();
+  }
+
+  @Test(timeout = 60000)
+  public void testBadPagesAreSkipped() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.start();
+    pipeline.put(page(1, "Article 1", "some text"));
+    // No numeric id: the filter stage logs the error and moves on.
+    pipeline.put(page(2, "Article 2", "some text").replace("<id>2</id>", "<id>two</id>"));
+    pipeline.put(page(3, "Article 3", "some text"));
+    pipeline.finish();
+    writer.close();
+
+    assertEquals(2, pipeline.getIndexedCount());
+  }
+
+  @Test(timeout = 60000)
+  public void testWriterFailureAbortsPipeline() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.setBatchSize(1);
+    pipeline.start();
+    // As if the writer had hit an unrecoverable error.
+    writer.close();
+
+    try {
+      for (int i = 1; i <= 100; i++) {
+        pipeline.put(page(i, "Article " + i, "some text"));
+      }
+      pipeline.finish();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof AlreadyClosedException);
+    }
+    // Once failed, the pipeline takes no more pages.
+    try {
+      pipeline.put(page(101, "Article 101", "some text"));
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof AlreadyClosedException);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testFailedRunLeavesNoNewCommit() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.start();
+    for (int i = 1; i <= 5; i++) {
+      pipeline.put(page(i, "Article " + i, "some text"));
+    }
+    pipeline.finish();
+    writer.close();
+    long generation = SegmentInfos.getLastCommitGeneration(dir);
+
+    // An update that fails partway, after some articles have been indexed.
+    writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43, new FailingAnalyzer())
+        .setOpenMode(OpenMode.APPEND));
+    List<IndexWriter> writers = Lists.newArrayList(writer);
+    pipeline = new IndexingPipeline(writers, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.setBatchSize(1);
+    pipeline.start();
+    try {
+      for (int i = 6; i <= 50; i++) {
+        pipeline.put(page(i, "Article " + i, i == 30 ? "text with crash" : "some text"));
+      }
+      pipeline.finish();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof Error);
+    }
+    assertTrue(pipeline.getIndexedCount() > 0);
+    IndexWikipediaDump.rollbackWriters(writers);
+
+    assertEquals(generation, SegmentInfos.getLastCommitGeneration(dir));
+    assertEquals(1, DirectoryReader.listCommits(dir).size());
+    DirectoryReader reader = DirectoryReader.open(dir);
+    assertEquals(5, reader.numDocs());
+    reader.close();
+  }
+
+  @Test
+  public void testFailedArticlesAreDropped() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir,
+        new IndexWriterConfig(Version.LUCENE_43, new FailingAnalyzer()));
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.setBatchSize(10);
+    pipeline.start();
+    for (int i = 1; i <= 25; i++) {
+      pipeline.put(page(i, "Article " + i, i == 7 || i == 22 ? "text with boom" : "some text"));
+    }
+    pipeline.finish();
+    writer.close();
+
+    // Only the two failing articles are lost, not the batches they were in.
+    assertEquals(23, pipeline.getIndexedCount());
+    assertEquals(2, pipeline.getDroppedCount());
+    DirectoryReader reader = DirectoryReader.open(dir);
+    assertEquals(23, reader.numDocs());
+    reader.close();
+  }
+
+  @Test
+  public void testUpdateDeletesArticlesTurnedIntoRedirects() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    IndexingPipeline pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.start();
+    for (int i = 1; i <= 5; i++) {
+      pipeline.put(page(i, "Article " + i, "some text"));
+    }
+    pipeline.finish();
+    writer.close();
+
+    DirectoryReader reader = DirectoryReader.open(dir);
+    IndexedRevisions revisions = IndexedRevisions.load(reader);
+    reader.close();
+
+    // Article 3 is now a redirect; article 4 has a new revision.
+    writer = IndexWikipediaDump.openWriter(dir, OpenMode.APPEND);
+    pipeline = new IndexingPipeline(writer, new WikiCleanBuilder(), Integer.MAX_VALUE);
+    pipeline.setRevisions(revisions);
+    pipeline.start();
+    for (int i = 1; i <= 5; i++) {
+      if (i == 3) {
+        pipeline.put(page(i, 2000 + i, "Article " + i, "#REDIRECT [[Article 1]]"));
+      } else {
+        pipeline.put(page(i, i == 4 ? 2000 + i : 1000 + i, "Article " + i, "some text"));
+      }
+    }
+    pipeline.finish();
+    writer.close();
+
+    assertEquals(1, pipeline.getIndexedCount());
+    assertEquals(3, pipeline.getUnchangedCount());
+    assertEquals(1, pipeline.getRedirectedCount());
+    reader = DirectoryReader.open(dir);
+    assertEquals(4, reader.numDocs());
+    IndexSearcher searcher = new IndexSearcher(reader);
+    assertEquals(0, searcher.search(new TermQuery(IndexWikipediaDump.idTerm(3)), 1).totalHits);
+    assertEquals(1, searcher.search(new TermQuery(IndexWikipediaDump.idTerm(4)), 1).totalHits);
+    reader.close();
+  }
+
+  @Test
+  public void testRevisionsWithoutIdDocValues() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = IndexWikipediaDump.openWriter(dir, OpenMode.CREATE);
+    // An article as indexed before ids were kept in doc values.
+    Document old = new Document();
+    old.add(new IntField(IndexField.ID.name, 5, Field.Store.YES));
+    writer.addDocument(old);
+    writer.commit();
+    writer.addDocument(new ArticleDocument().set(6, 1006, "Article 6", "some text"));
+    writer.commit();
+
+    for (boolean merged : new boolean[] { false, true }) {
+      if (merged) {
+        // Merged into a segment with new articles, the old one reads 0 from the doc values.
+        writer.forceMerge(1);
+        writer.commit();
+      }
+      DirectoryReader reader = DirectoryReader.open(dir);
+      IndexedRevisions revisions = IndexedRevisions.load(reader);
+      reader.close();
+      assertEquals(2, revisions.size());
+      assertTrue(revisions.contains(5));
+      assertTrue(revisions.contains(6));
+      assertFalse(revisions.contains(0));
+      assertFalse(revisions.isCurrent(5, 1005));
+      assertTrue(revisions.isCurrent(6, 1006));
+    }
+    writer.close();
+  }
+
+  static String page(int id, String title, String text) {
+    return page(id, 1000 + id, title, text);
+  }
+
+  static String page(int id, long revision, String title, String text) {
+    return "<page>\n<title>" + title + "</title>\n<ns>0</ns>\n<id>" + id
+        + "</id>\n<revision>\n<id>" + revision + "</id>\n<text xml:space=\"preserve\">" + text
+        + "</text>\n</revision>\n</page>\n";
+  }
+
+  // Fails on the term "boom", the way analysis fails on a bad document: without aborting the writer.
+  // Throws an error on "crash", which nothing should recover from.
+  private static class FailingAnalyzer extends Analyzer {
+    @Override
+    protected TokenStreamComponents createComponents(String field, Reader reader) {
+      Tokenizer tokenizer = new StandardTokenizer(Version.LUCENE_43, reader);
+      TokenStream stream = new TokenFilter(tokenizer) {
+        private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+
+        @Override
+        public boolean incrementToken() throws IOException {
+          if (!input.incrementToken()) {
+            return false;
+          }
+          if (term.toString().equals("boom")) {
+            throw new IllegalArgumentException("boom");
+          }
+          if (term.toString().equals("crash")) {
+            throw new Error("crash");
+          }
+          return true;
+        }
+      };
+      return new TokenStreamComponents(tokenizer, stream);
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexingPipelineTest.class);
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class RedirectTableTest {
+
+  @Test
+  public void testResolvesRedirects() throws Exception {
+    File index = writeIndex();
+    try {
+      RedirectTable.Builder builder = new RedirectTable.Builder();
+      builder.add("Direct", "Article 1");
+      builder.add("Direct", "Article 2");
+      builder.add("Missing", "No such article");
+      builder.add("Self", "Self");
+      // A cycle that never reaches an article.
+      builder.add("Cycle A", "Cycle B");
+      builder.add("Cycle B", "Cycle C");
+      builder.add("Cycle C", "Cycle A");
+      // Chains, added from the far end so that each round of resolution only gets one step
+      // closer: up to five redirects from an article are followed.
+      for (int i = 1; i <= 5; i++) {
+        builder.add("Five " + i, i == 5 ? "Article 2" : "Five " + (i + 1));
+      }
+      for (int i = 1; i <= 6; i++) {
+        builder.add("Six " + i, i == 6 ? "Article 3" : "Six " + (i + 1));
+      }
+
+      WikipediaSearcher searcher = new WikipediaSearcher(index);
+      Directory dir = FSDirectory.open(index);
+      assertEquals(11, builder.write(searcher, dir));
+      searcher.close();
+      builder.close();
+
+      RedirectTable table = RedirectTable.open(dir);
+      assertEquals(11, table.size());
+      // The first redirect from a title wins.
+      assertEquals(1, table.get("Direct"));
+      assertEquals(-1, table.get("Missing"));
+      assertEquals(-1, table.get("Self"));
+      assertEquals(-1, table.get("Cycle A"));
+      assertEquals(-1, table.get("Cycle B"));
+      assertEquals(-1, table.get("Cycle C"));
+      for (int i = 1; i <= 5; i++) {
+        assertEquals(2, table.get("Five " + i));
+      }
+      assertEquals(-1, table.get("Six 1"));
+      for (int i = 2; i <= 6; i++) {
+        assertEquals(3, table.get("Six " + i));
+      }
+      // Articles themselves aren't redirects.
+      assertEquals(-1, table.get("Article 1"));
+
+      // The same table, read into memory from a directory that isn't on the file system.
+      Directory ram = new RAMDirectory(dir, IOContext.DEFAULT);
+      RedirectTable copy = RedirectTable.open(ram);
+      assertEquals(11, copy.size());
+      assertEquals(2, copy.get("Five 1"));
+      assertEquals(-1, copy.get("Cycle A"));
+      dir.close();
+
+      // Searchers resolve redirected titles through the table.
+      searcher = new WikipediaSearcher(index);
+      assertEquals(2, searcher.getArticleId("Five 3"));
+      assertEquals("text of article 3", searcher.getArticleText("Six 2"));
+      assertEquals(-1, searcher.getArticleId("Cycle B"));
+      searcher.close();
+    } finally {
+      for (File file : index.listFiles()) {
+        file.delete();
+      }
+      index.delete();
+    }
+  }
+
+  @Test
+  public void testNoTable() throws Exception {
+    Directory dir = new RAMDirectory();
+    assertNull(RedirectTable.open(dir));
+
+    // Nothing to resolve still makes a valid, empty table.
+    File index = writeIndex();
+    try {
+      RedirectTable.Builder builder = new RedirectTable.Builder();
+      WikipediaSearcher searcher = new WikipediaSearcher(index);
+      assertEquals(0, builder.write(searcher, dir));
+      searcher.close();
+      builder.close();
+      RedirectTable table = RedirectTable.open(dir);
+      assertEquals(0, table.size());
+      assertEquals(-1, table.get("Article 1"));
+    } finally {
+      for (File file : index.listFiles()) {
+        file.delete();
+      }
+      index.delete();
+    }
+  }
+
+  private static File writeIndex() throws Exception {
+    File index = Files.createTempDir();
+    IndexWriter writer = new IndexWriter(FSDirectory.open(index),
+        new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+    ArticleDocument doc = new ArticleDocument();
+    for (int id = 1; id <= 3; id++) {
+      writer.addDocument(doc.set(id, 1, "Article " + id, "text of article " + id));
+    }
+    writer.close();
+    return index;
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RedirectTableTest.class);
+  }
+}
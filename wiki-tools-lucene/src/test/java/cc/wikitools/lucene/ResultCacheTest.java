@@ -0,0 +1,138 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+  @Test
+  public void testHit() throws Exception {
+    IndexWriter writer = newWriter();
+    IndexReader reader = DirectoryReader.open(writer, true);
+    ResultCache cache = ResultCache.withMaxEntries(10);
+
+    assertNull(cache.get(reader, "text", "alpha", 10));
+    cache.put(reader, "text", "alpha", 10, results(3, 1, 2));
+    TopDocs hit = cache.get(reader, "text", "alpha", 10);
+    assertEquals(3, hit.totalHits);
+    assertEquals(2, hit.scoreDocs.length);
+    assertEquals(1, hit.scoreDocs[0].doc);
+    assertEquals(2, hit.scoreDocs[1].doc);
+    assertEquals(1.0f, hit.getMaxScore(), 0.0f);
+
+    // The field and number of results are part of the key.
+    assertNull(cache.get(reader, "title", "alpha", 10));
+    assertNull(cache.get(reader, "text", "alpha", 5));
+    assertEquals(1, cache.stats().hitCount());
+
+    reader.close();
+    writer.close();
+  }
+
+  @Test
+  public void testInvalidatedOnReaderChange() throws Exception {
+    IndexWriter writer = newWriter();
+    IndexReader first = DirectoryReader.open(writer, true);
+    IndexReader second = DirectoryReader.open(writer, true);
+    ResultCache cache = ResultCache.withMaxEntries(10);
+
+    cache.get(first, "text", "alpha", 10);
+    cache.put(first, "text", "alpha", 10, results(1, 0));
+    cache.put(first, "text", "beta", 10, results(1, 0));
+    assertEquals(2, cache.size());
+
+    // Looking up with a new reader empties the cache.
+    assertNull(cache.get(second, "text", "alpha", 10));
+    assertEquals(0, cache.size());
+
+    // Results from the reader the cache has moved past are dropped.
+    cache.put(first, "text", "alpha", 10, results(1, 0));
+    assertEquals(0, cache.size());
+    cache.put(second, "text", "alpha", 10, results(1, 0));
+    assertEquals(1, cache.get(second, "text", "alpha", 10).totalHits);
+
+    // Going back to an older reader also empties it.
+    assertNull(cache.get(first, "text", "alpha", 10));
+    assertEquals(0, cache.size());
+
+    first.close();
+    second.close();
+    writer.close();
+  }
+
+  @Test
+  public void testSearchStats() throws Exception {
+    IndexWriter writer = newWriter();
+    IndexReader reader = DirectoryReader.open(writer, true);
+    ResultCache cache = ResultCache.withMaxEntries(1);
+    SearchStats stats = new SearchStats();
+    assertEquals(0, stats.getCacheMissCount());
+    assertFalse(stats.report().contains("result_cache"));
+
+    stats.setResultCache(cache);
+    cache.get(reader, "text", "alpha", 10);
+    cache.put(reader, "text", "alpha", 10, results(1, 0));
+    cache.get(reader, "text", "alpha", 10);
+    cache.put(reader, "text", "beta", 10, results(1, 0));
+    assertEquals(1, stats.getCacheHitCount());
+    assertEquals(1, stats.getCacheMissCount());
+    assertEquals(1, stats.getCacheEvictionCount());
+    assertTrue(stats.report().contains("result_cache hits=1 misses=1 hit_rate=0.500 evictions=1"));
+
+    stats.reset();
+    assertEquals(0, stats.getCacheHitCount());
+    assertEquals(0, stats.getCacheMissCount());
+    assertEquals(0, stats.getCacheEvictionCount());
+    cache.get(reader, "text", "beta", 10);
+    assertEquals(1, stats.getCacheHitCount());
+
+    reader.close();
+    writer.close();
+  }
+
+  private static IndexWriter newWriter() throws Exception {
+    return new IndexWriter(new RAMDirectory(),
+        new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+  }
+
+  private static TopDocs results(int totalHits, int... docs) {
+    ScoreDoc[] scoreDocs = new ScoreDoc[docs.length];
+    for (int i = 0; i < docs.length; i++) {
+      scoreDocs[i] = new ScoreDoc(docs[i], 1.0f / (i + 1));
+    }
+    return new TopDocs(totalHits, scoreDocs, 1.0f);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ResultCacheTest.class);
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class WikipediaIdMapTest {
+
+  @Test
+  public void testLookups() throws Exception {
+    Random random = new Random(3);
+    // Sizes around the points where the table doubles.
+    for (int n : new int[] { 1, 7, 8, 9, 16, 17, 100, 1023, 1024, 1025 }) {
+      int[] ids = new int[n];
+      for (int i = 0; i < n; i++) {
+        // Half random ids, half multiples of a large power of two, which land in the same slot
+        // of any table under a weak hash.
+        ids[i] = i % 2 == 0 ? 1 + random.nextInt(Integer.MAX_VALUE - 1) : (i + 1) << 16;
+      }
+      check(ids);
+    }
+  }
+
+  @Test
+  public void testDeletedAndDuplicateArticles() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = newWriter(dir);
+    ArticleDocument doc = new ArticleDocument();
+    for (int id = 1; id <= 10; id++) {
+      writer.addDocument(doc.set(id, 1, "Article " + id, "text"));
+    }
+    writer.commit();
+    // A second segment, with a duplicate of article 3.
+    writer.addDocument(doc.set(3, 1, "Article 3", "text"));
+    writer.addDocument(doc.set(11, 1, "Article 11", "text"));
+    writer.deleteDocuments(IndexWikipediaDump.idTerm(5));
+    writer.close();
+
+    DirectoryReader reader = DirectoryReader.open(dir);
+    WikipediaIdMap map = WikipediaIdMap.build(reader);
+    assertSame(reader, map.getReader());
+    assertEquals(10, map.size());
+    // The first copy wins, and deleted articles aren't found.
+    assertEquals(2, map.get(3));
+    assertEquals(-1, map.get(5));
+    assertEquals(11, map.get(11));
+    assertEquals(-1, map.get(12));
+    reader.close();
+  }
+
+  @Test
+  public void testEmptyIndex() throws Exception {
+    Directory dir = new RAMDirectory();
+    newWriter(dir).close();
+    DirectoryReader reader = DirectoryReader.open(dir);
+    WikipediaIdMap map = WikipediaIdMap.build(reader);
+    assertEquals(0, map.size());
+    assertEquals(-1, map.get(1));
+    reader.close();
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    assertEquals(16, WikipediaIdMap.capacity(0));
+    assertEquals(16, WikipediaIdMap.capacity(8));
+    assertEquals(32, WikipediaIdMap.capacity(9));
+    // The largest table that fits in a direct buffer.
+    assertEquals(1 << 27, WikipediaIdMap.capacity(1 << 26));
+    for (int numDocs : new int[] { (1 << 26) + 1, 1 << 30, Integer.MAX_VALUE }) {
+      try {
+        WikipediaIdMap.capacity(numDocs);
+        fail();
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().startsWith("too many documents"));
+      }
+    }
+  }
+
+  /**
+   * Indexes articles with the given ids, and checks that every one is found at its docid and
+   * that ids nearby aren't found.
+   */
+  private static void check(int[] ids) throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriter writer = newWriter(dir);
+    ArticleDocument doc = new ArticleDocument();
+    Map<Integer, Integer> docids = Maps.newHashMap();
+    for (int id : ids) {
+      if (!docids.containsKey(id)) {
+        docids.put(id, docids.size());
+        writer.addDocument(doc.set(id, 1, "Article " + id, "text"));
+      }
+    }
+    writer.close();
+
+    DirectoryReader reader = DirectoryReader.open(dir);
+    WikipediaIdMap map = WikipediaIdMap.build(reader);
+    assertEquals(docids.size(), map.size());
+    for (Map.Entry<Integer, Integer> entry : docids.entrySet()) {
+      assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+      for (int missing : new int[] { entry.getKey() + 1, entry.getKey() - 1, -entry.getKey() }) {
+        if (!docids.containsKey(missing)) {
+          assertEquals(-1, map.get(missing));
+        }
+      }
+    }
+    reader.close();
+  }
+
+  private static IndexWriter newWriter(Directory dir) throws Exception {
+    return new IndexWriter(dir,
+        new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikipediaIdMapTest.class);
+  }
+}
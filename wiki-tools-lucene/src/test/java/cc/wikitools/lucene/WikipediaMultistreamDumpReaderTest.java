@@ -0,0 +1,144 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.io.Files;
+
+public class WikipediaMultistreamDumpReaderTest {
+  private static final int NUM_PAGES = 1000;
+  private static final int PAGES_PER_STREAM = 100;
+
+  @Test
+  public void testReadsEveryPageOnce() throws Exception {
+    File dump = writeDump();
+    try {
+      for (int threads : new int[] { 1, 4 }) {
+        final Multiset<String> titles = ConcurrentHashMultiset.create();
+        new WikipediaMultistreamDumpReader(dump.getPath(), threads).readAll(
+            new WikipediaMultistreamDumpReader.PageHandler() {
+          @Override
+          public boolean handle(String page) {
+            assertTrue(page.startsWith("<page>") && page.endsWith("</page>\n"));
+            titles.add(page.substring(page.indexOf("<title>") + 7, page.indexOf("</title>")));
+            return true;
+          }
+        });
+
+        // The siteinfo and the closing tag, in streams of their own, aren't pages.
+        assertEquals(NUM_PAGES, titles.size());
+        for (int i = 1; i <= NUM_PAGES; i++) {
+          assertEquals(1, titles.count("Article " + i));
+        }
+      }
+    } finally {
+      dump.delete();
+    }
+  }
+
+  @Test
+  public void testStopsWhenAsked() throws Exception {
+    File dump = writeDump();
+    try {
+      final AtomicInteger cnt = new AtomicInteger();
+      new WikipediaMultistreamDumpReader(dump.getPath(), 2).readAll(
+          new WikipediaMultistreamDumpReader.PageHandler() {
+        @Override
+        public boolean handle(String page) {
+          return cnt.incrementAndGet() < 5;
+        }
+      });
+      // Streams already handed to a thread may still be read, but not the whole dump.
+      assertTrue(cnt.get() < NUM_PAGES);
+    } finally {
+      dump.delete();
+    }
+  }
+
+  @Test
+  public void testHandlerErrorsArePropagated() throws Exception {
+    File dump = writeDump();
+    final IOException error = new IOException("bad page");
+    try {
+      new WikipediaMultistreamDumpReader(dump.getPath(), 2).readAll(
+          new WikipediaMultistreamDumpReader.PageHandler() {
+        @Override
+        public boolean handle(String page) throws IOException {
+          throw error;
+        }
+      });
+      fail();
+    } catch (IOException e) {
+      assertSame(error, e.getCause());
+    } finally {
+      dump.delete();
+    }
+  }
+
+  @Test
+  public void testDecompressPages() throws Exception {
+    String text = "  <siteinfo>\n    <sitename>Wikipedia</sitename>\n  </siteinfo>\n"
+        + IndexingPipelineTest.page(1, "Article 1", "one\ntwo")
+        + IndexingPipelineTest.page(2, "Article 2", "three");
+    List<String> pages =
+        WikipediaMultistreamDumpReader.decompressPages(Bz2StreamSplitterTest.stream(text));
+    assertEquals(2, pages.size());
+    assertEquals(IndexingPipelineTest.page(1, "Article 1", "one\ntwo"), pages.get(0));
+    assertEquals(IndexingPipelineTest.page(2, "Article 2", "three"), pages.get(1));
+  }
+
+  /**
+   * Writes a multistream dump laid out like Wikipedia's: the header, streams of pages, and the
+   * closing tag, each in a stream of its own.
+   */
+  static File writeDump() throws IOException {
+    List<byte[]> streams = Lists.newArrayList();
+    streams.add(Bz2StreamSplitterTest.stream("<mediawiki>\n  <siteinfo>\n  </siteinfo>\n"));
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1; i <= NUM_PAGES; i++) {
+      sb.append(IndexingPipelineTest.page(i, "Article " + i, "Some text about article " + i));
+      if (i % PAGES_PER_STREAM == 0) {
+        streams.add(Bz2StreamSplitterTest.stream(sb.toString()));
+        sb.setLength(0);
+      }
+    }
+    streams.add(Bz2StreamSplitterTest.stream("</mediawiki>\n"));
+
+    File dump = File.createTempFile("dump", ".xml.bz2");
+    Files.write(Bz2StreamSplitterTest.concat(streams), dump);
+    return dump;
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikipediaMultistreamDumpReaderTest.class);
+  }
+}
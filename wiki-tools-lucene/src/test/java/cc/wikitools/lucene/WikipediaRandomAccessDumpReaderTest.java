@@ -0,0 +1,162 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class WikipediaRandomAccessDumpReaderTest {
+  private static final int NUM_PAGES = 250;
+  private static final int PAGES_PER_STREAM = 20;
+
+  private static File dir;
+  private static File dump;
+  private static File index;
+
+  @BeforeClass
+  public static void writeDump() throws Exception {
+    dir = Files.createTempDir();
+    dump = new File(dir, "dump.xml.bz2");
+    index = new File(dir, "index.txt");
+
+    List<byte[]> streams = Lists.newArrayList();
+    StringBuilder lines = new StringBuilder();
+    streams.add(Bz2StreamSplitterTest.stream("<mediawiki>\n  <siteinfo>\n  </siteinfo>\n"));
+    long offset = streams.get(0).length;
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1; i <= NUM_PAGES; i++) {
+      // Ids with gaps, as in a real dump.
+      sb.append(IndexingPipelineTest.page(id(i), title(i), "Text of page " + i));
+      lines.append(offset).append(':').append(id(i)).append(':').append(title(i)).append('\n');
+      if (i % PAGES_PER_STREAM == 0 || i == NUM_PAGES) {
+        streams.add(Bz2StreamSplitterTest.stream(sb.toString()));
+        offset += streams.get(streams.size() - 1).length;
+        sb.setLength(0);
+      }
+    }
+    streams.add(Bz2StreamSplitterTest.stream("</mediawiki>\n"));
+
+    Files.write(Bz2StreamSplitterTest.concat(streams), dump);
+    Files.write(lines.toString(), index, Charsets.UTF_8);
+  }
+
+  @AfterClass
+  public static void deleteDump() {
+    dump.delete();
+    index.delete();
+    dir.delete();
+  }
+
+  @Test
+  public void testGetPageById() throws Exception {
+    WikipediaRandomAccessDumpReader reader = newReader(false);
+    assertEquals(NUM_PAGES, reader.getNumPages());
+    assertEquals((NUM_PAGES + PAGES_PER_STREAM - 1) / PAGES_PER_STREAM, reader.getNumStreams());
+
+    // First and last pages of the dump and of a stream, and one in the middle.
+    for (int i : new int[] { 1, PAGES_PER_STREAM, PAGES_PER_STREAM + 1, 123, NUM_PAGES }) {
+      assertEquals(IndexingPipelineTest.page(id(i), title(i), "Text of page " + i),
+          reader.getPage(id(i)));
+    }
+    // Before the first page, in a gap between ids, and after the last page.
+    assertNull(reader.getPage(1));
+    assertNull(reader.getPage(id(7) + 1));
+    assertNull(reader.getPage(id(NUM_PAGES) + 1));
+    reader.close();
+  }
+
+  @Test
+  public void testGetPagesInDumpOrder() throws Exception {
+    WikipediaRandomAccessDumpReader reader = newReader(false);
+    List<String> pages = reader.getPages(Arrays.asList(id(200), id(3), 4, id(5), id(201)));
+    assertEquals(4, pages.size());
+    assertTrue(pages.get(0).contains("<title>" + title(3) + "</title>"));
+    assertTrue(pages.get(1).contains("<title>" + title(5) + "</title>"));
+    assertTrue(pages.get(2).contains("<title>" + title(200) + "</title>"));
+    assertTrue(pages.get(3).contains("<title>" + title(201) + "</title>"));
+    reader.close();
+  }
+
+  @Test
+  public void testGetPageByTitle() throws Exception {
+    WikipediaRandomAccessDumpReader reader = newReader(true);
+    assertEquals(IndexingPipelineTest.page(id(42), title(42), "Text of page 42"),
+        reader.getPage(title(42)));
+    assertNull(reader.getPage("Not a page"));
+
+    // "Aa" and "BB" have the same hash; both streams are read, but only the right page returned.
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    assertTrue(reader.getPage("Aa").contains("<id>" + id(10) + "</id>"));
+    assertTrue(reader.getPage("BB").contains("<id>" + id(110) + "</id>"));
+    reader.close();
+
+    reader = newReader(false);
+    try {
+      reader.getPage(title(42));
+      fail();
+    } catch (IllegalStateException e) {
+      // Titles weren't loaded.
+    }
+    reader.close();
+  }
+
+  @Test
+  public void testRejectsUnsortedIndex() throws Exception {
+    File unsorted = new File(dir, "unsorted.txt");
+    Files.write("100:5:B\n100:3:A\n", unsorted, Charsets.UTF_8);
+    try {
+      new WikipediaRandomAccessDumpReader(dump.getPath(), unsorted.getPath(), false);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("not sorted"));
+    } finally {
+      unsorted.delete();
+    }
+  }
+
+  private static WikipediaRandomAccessDumpReader newReader(boolean titles) throws IOException {
+    return new WikipediaRandomAccessDumpReader(dump.getPath(), index.getPath(), titles);
+  }
+
+  private static int id(int i) {
+    return 3 * i;
+  }
+
+  private static String title(int i) {
+    return i == 10 ? "Aa" : i == 110 ? "BB" : "Page " + i;
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikipediaRandomAccessDumpReaderTest.class);
+  }
+}
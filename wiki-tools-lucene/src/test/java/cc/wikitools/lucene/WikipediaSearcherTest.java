@@ -0,0 +1,408 @@
+/**
+ * wiki-tools-lucene: Java package for searching Wikipedia dumps with Lucene
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.wikitools.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import cc.wikitools.lucene.IndexWikipediaDump.IndexField;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class WikipediaSearcherTest {
+  private static final int NUM_DOCS = 2000;
+  private static final int NUM_QUERIES = 100;
+  private static final int ROUNDS = 20;
+  private static final String[] WORDS = ("alpha beta gamma delta epsilon zeta eta theta iota kappa "
+      + "lambda mu nu xi omicron pi rho sigma tau upsilon phi chi psi omega").split(" ");
+
+  private static File index;
+
+  @BeforeClass
+  public static void buildIndex() throws Exception {
+    index = Files.createTempDir();
+    IndexWriter writer = new IndexWriter(FSDirectory.open(index),
+        new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+    ArticleDocument doc = new ArticleDocument();
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_DOCS; i++) {
+      writer.addDocument(doc.set(i, i, title(i), words(random, 10 + random.nextInt(200))));
+    }
+    writer.close();
+  }
+
+  @AfterClass
+  public static void deleteIndex() {
+    for (File file : index.listFiles()) {
+      file.delete();
+    }
+    index.delete();
+  }
+
+  @Test
+  public void testConcurrentSearch() throws Exception {
+    WikipediaSearcher searcher = new WikipediaSearcher(index);
+
+    // Expected results, computed from a single thread.
+    Random random = new Random(7);
+    List<String> queries = Lists.newArrayList();
+    List<TopDocs> expected = Lists.newArrayList();
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      String q = words(random, 1 + random.nextInt(3));
+      queries.add(q);
+      expected.add(searcher.searchArticle(q, 10));
+    }
+
+    // Throughput is measured by ConcurrentSearchBenchmark; here, only the results are checked.
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    assertEquals(0, run(searcher, threads, queries, expected));
+
+    searcher.close();
+  }
+
+  @Test
+  public void testBatchSearch() throws Exception {
+    WikipediaSearcher searcher = new WikipediaSearcher(index);
+    Random random = new Random(13);
+    List<String> queries = Lists.newArrayList();
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      // Every tenth query doesn't parse.
+      queries.add(i % 10 == 3 ? "AND (" : words(random, 1 + random.nextInt(3)));
+    }
+
+    for (int threads : new int[] { 0, 3 }) {
+      searcher.setBatchThreads(threads);
+      List<TopDocs> articles = searcher.searchArticles(queries, 10);
+      List<TopDocs> titles = searcher.searchTitles(queries, 10);
+      assertEquals(queries.size(), articles.size());
+      assertEquals(queries.size(), titles.size());
+      for (int i = 0; i < queries.size(); i++) {
+        if (i % 10 == 3) {
+          assertNull(articles.get(i));
+          assertNull(titles.get(i));
+        } else {
+          assertTrue(same(searcher.searchArticle(queries.get(i), 10), articles.get(i)));
+          assertTrue(same(searcher.searchTitle(queries.get(i), 10), titles.get(i)));
+        }
+      }
+    }
+    searcher.setBatchThreads(0);
+
+    // Searching a file of queries prints their results in order, across chunks.
+    File file = File.createTempFile("queries", ".txt");
+    Files.write(Joiner.on('\n').join(queries), file, Charsets.UTF_8);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, "UTF-8");
+    SearchWikipedia.searchAll(searcher, file, 10, true, 1, out);
+    file.delete();
+
+    List<String> lines = Lists.newArrayList();
+    for (int i = 0; i < queries.size(); i++) {
+      List<SearchResult> results =
+          searcher.renderResults(searcher.searchArticle(queries.get(i), 10));
+      for (int rank = 0; rank < results.size(); rank++) {
+        SearchResult result = results.get(rank);
+        lines.add((i + 1) + "\t" + queries.get(i) + "\t" + (rank + 1) + "\t" + result.id + "\t"
+            + result.title + "\t" + result.score);
+      }
+    }
+    assertEquals(lines, Lists.newArrayList(bytes.toString("UTF-8").split("\n")));
+
+    searcher.close();
+  }
+
+  @Test
+  public void testScoreArticles() throws Exception {
+    WikipediaSearcher searcher = new WikipediaSearcher(index);
+
+    // Out of index order, with ids that aren't in the index.
+    int[] ids = new int[500];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = (ids.length - i) * 7 - 100;
+    }
+
+    Random random = new Random(11);
+    for (int i = 0; i < 10; i++) {
+      String q = words(random, 1 + random.nextInt(3));
+      float[] scores = searcher.scoreArticles(q, ids);
+      for (int j = 0; j < ids.length; j++) {
+        Explanation explanation = searcher.explainArticle(q, ids[j]);
+        float expected = explanation == null || !explanation.isMatch() ? 0.0f : explanation.getValue();
+        assertEquals(expected, searcher.scoreArticle(q, ids[j]), 1e-5f);
+        assertEquals(expected, scores[j], 1e-5f);
+      }
+    }
+
+    searcher.close();
+  }
+
+  @Test
+  public void testRenderResults() throws Exception {
+    WikipediaSearcher searcher = new WikipediaSearcher(index);
+
+    Random random = new Random(13);
+    for (int i = 0; i < 20; i++) {
+      TopDocs rs = searcher.searchArticle(words(random, 1 + random.nextInt(3)), 20);
+      List<SearchResult> results = searcher.renderResults(rs);
+      assertEquals(rs.scoreDocs.length, results.size());
+      for (int j = 0; j < rs.scoreDocs.length; j++) {
+        Document doc = searcher.doc(rs.scoreDocs[j].doc);
+        SearchResult result = results.get(j);
+        assertEquals(rs.scoreDocs[j].doc, result.docid);
+        assertEquals(doc.get(IndexField.ID.name), Integer.toString(result.id));
+        assertEquals(doc.get(IndexField.TITLE.name), result.title);
+        assertEquals(rs.scoreDocs[j].score, result.score, 0.0f);
+      }
+    }
+    // A query that doesn't parse has no results to render.
+    assertTrue(searcher.renderResults(searcher.searchArticle("AND (", 20)).isEmpty());
+
+    searcher.close();
+  }
+
+  @Test
+  public void testNearRealTime() throws Exception {
+    IndexWriter writer = new IndexWriter(new RAMDirectory(),
+        new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+    SearcherManager manager = new SearcherManager(writer, true, null);
+    WikipediaSearcher searcher = new WikipediaSearcher(manager);
+    assertEquals(0, searcher.searchArticle("alpha", 10).totalHits);
+
+    ArticleDocument doc = new ArticleDocument();
+    writer.addDocument(doc.set(1, 1, title(1), "alpha beta"));
+    // Not visible until the manager is refreshed.
+    assertEquals(0, searcher.searchArticle("alpha", 10).totalHits);
+    assertEquals(-1, searcher.getArticleId(title(1)));
+
+    manager.maybeRefresh();
+    assertEquals(1, searcher.searchArticle("alpha", 10).totalHits);
+    assertEquals(1, searcher.getArticleId(title(1)));
+
+    // Updates replace the article once the manager is refreshed again.
+    writer.addDocument(doc.set(2, 1, title(2), "alpha gamma"));
+    writer.updateDocument(IndexWikipediaDump.idTerm(1), doc.set(1, 2, title(1), "delta"));
+    manager.maybeRefresh();
+    assertEquals(1, searcher.searchArticle("alpha", 10).totalHits);
+    assertEquals("delta", searcher.getArticle(1).get(IndexField.TEXT.name));
+    assertEquals(2, searcher.getArticleId(title(2)));
+    assertEquals("alpha gamma", searcher.getArticleText(title(2)));
+
+    searcher.close();
+    manager.close();
+    writer.close();
+  }
+
+  @Test
+  public void testArticleIdWithoutDocValues() throws Exception {
+    IndexWriter writer = new IndexWriter(new RAMDirectory(),
+        new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+    // An article as indexed before ids were kept in doc values.
+    Document old = new Document();
+    old.add(new IntField(IndexField.ID.name, 5, Field.Store.YES));
+    old.add(new Field(IndexField.TITLE.name, title(5), IndexWikipediaDump.TEXT_OPTIONS));
+    old.add(new StringField(IndexField.TITLE_EXACT.name, title(5), Field.Store.NO));
+    writer.addDocument(old);
+    writer.commit();
+    writer.addDocument(new ArticleDocument().set(6, 1, title(6), "alpha"));
+
+    SearcherManager manager = new SearcherManager(writer, true, null);
+    WikipediaSearcher searcher = new WikipediaSearcher(manager);
+    assertEquals(5, searcher.getArticleId(title(5)));
+    assertEquals(6, searcher.getArticleId(title(6)));
+
+    // Merged into a segment with new articles, the old one reads 0 from the doc values.
+    writer.forceMerge(1);
+    manager.maybeRefresh();
+    assertEquals(5, searcher.getArticleId(title(5)));
+    assertEquals(6, searcher.getArticleId(title(6)));
+
+    searcher.close();
+    manager.close();
+    writer.close();
+  }
+
+  @Test
+  public void testSnippets() throws Exception {
+    for (boolean offsets : new boolean[] { true, false }) {
+      IndexWriter writer = new IndexWriter(new RAMDirectory(),
+          new IndexWriterConfig(Version.LUCENE_43, IndexWikipediaDump.ANALYZER));
+      ArticleDocument doc = new ArticleDocument(offsets);
+      writer.addDocument(doc.set(1, 1, title(1), "Alpha beta gamma. Delta epsilon. Zeta theta."));
+      writer.addDocument(doc.set(2, 1, title(2), "Gamma delta. Theta iota theta."));
+      SearcherManager manager = new SearcherManager(writer, true, null);
+      WikipediaSearcher searcher = new WikipediaSearcher(manager);
+      assertEquals(offsets, WikipediaSearcher.hasOffsets(searcher.getIndexReader()));
+
+      TopDocs rs = searcher.searchArticle("theta", 10);
+      assertEquals(2, rs.totalHits);
+      String[] snippets = searcher.getSnippets("theta", rs, 1);
+      String[] reanalyzed = searcher.getSnippets("theta", rs, 1, true);
+      for (int i = 0; i < rs.scoreDocs.length; i++) {
+        // Passages are whole sentences; re-analysis takes fixed-size fragments instead.
+        assertTrue(!offsets || !snippets[i].contains("Alpha"));
+        assertTrue(snippets[i].contains("<b>theta</b>") || snippets[i].contains("<b>Theta</b>"));
+        assertTrue(reanalyzed[i].contains("<b>theta</b>") || reanalyzed[i].contains("<b>Theta</b>"));
+      }
+
+      searcher.close();
+      manager.close();
+      writer.close();
+    }
+  }
+
+  /**
+   * Runs the queries and lookups from several threads at once, and returns the number of results
+   * that differ from the expected ones.
+   */
+  private static int run(final WikipediaSearcher searcher, int threads,
+      final List<String> queries, final List<TopDocs> expected) throws Exception {
+    final AtomicInteger errors = new AtomicInteger();
+    // Released together, so that the threads actually overlap.
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> results = Lists.newArrayList();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int r = 0; r < ROUNDS; r++) {
+            barrier.await(1, TimeUnit.MINUTES);
+            for (int i = 0; i < queries.size(); i++) {
+              // Threads start at different queries, so they don't run in lock step.
+              int j = (i + offset * 17) % queries.size();
+              if (!same(expected.get(j), searcher.searchArticle(queries.get(j), 10))) {
+                errors.incrementAndGet();
+              }
+              int id = (j * 31 + r) % NUM_DOCS;
+              if (searcher.getArticleId(title(id)) != id
+                  || !title(id).equals(searcher.getArticle(id).get(IndexField.TITLE.name))) {
+                errors.incrementAndGet();
+              }
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    executor.shutdown();
+    for (Future<?> result : results) {
+      result.get(5, TimeUnit.MINUTES);
+    }
+    return errors.get();
+  }
+
+  @Test
+  public void testStats() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(1000, histogram.getCount());
+    // Buckets are at most a sixteenth of their latency wide.
+    assertEquals(500000, histogram.percentile(0.5), 500000 / 16);
+    assertEquals(990000, histogram.percentile(0.99), 990000 / 16);
+    assertEquals(1000000, histogram.percentile(1.0));
+
+    WikipediaSearcher searcher = new WikipediaSearcher(index);
+    SearchStats stats = searcher.getStats();
+    for (int i = 0; i < 10; i++) {
+      searcher.searchArticle(WORDS[i], 10);
+      searcher.getArticle(i);
+    }
+    searcher.getArticleText(title(1));
+    searcher.scoreArticle(WORDS[0], 1);
+    searcher.scoreArticles(WORDS[0], new int[] { 1, 2, 3 });
+
+    for (SearchStats.Phase phase : SearchStats.Phase.values()) {
+      long expected = phase == SearchStats.Phase.FETCH ? 0 : 10;
+      assertEquals(expected, stats.get(SearchStats.Operation.SEARCH_ARTICLE, phase).getCount());
+    }
+    assertEquals(10, stats.get(SearchStats.Operation.FETCH_BY_ID, SearchStats.Phase.FETCH).getCount());
+    assertEquals(1, stats.get(SearchStats.Operation.FETCH_BY_TITLE, SearchStats.Phase.TOTAL).getCount());
+    // One batch of scores counts as one operation.
+    assertEquals(2, stats.get(SearchStats.Operation.SCORE, SearchStats.Phase.SEARCH).getCount());
+    assertEquals(2, stats.get(SearchStats.Operation.SCORE, SearchStats.Phase.TOTAL).getCount());
+    assertTrue(stats.report().contains("search_article"));
+
+    stats.reset();
+    assertEquals(0, stats.get(SearchStats.Operation.SEARCH_ARTICLE, SearchStats.Phase.TOTAL).getCount());
+    searcher.close();
+  }
+
+  private static boolean same(TopDocs a, TopDocs b) {
+    if (b == null || a.totalHits != b.totalHits || a.scoreDocs.length != b.scoreDocs.length) {
+      return false;
+    }
+    for (int i = 0; i < a.scoreDocs.length; i++) {
+      if (a.scoreDocs[i].doc != b.scoreDocs[i].doc || a.scoreDocs[i].score != b.scoreDocs[i].score) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String title(int id) {
+    return "Article " + id;
+  }
+
+  private static String words(Random random, int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      sb.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return sb.toString();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WikipediaSearcherTest.class);
+  }
+}